@@ -0,0 +1,94 @@
+package com.hack.parser.solver.enhanced;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Source tree a benchmark runs against, named by its {@code corpus} parameter: "fixtures" for
+ * the com.hack.parser.test classes of this repository, "generated:" followed by
+ * {@link SyntheticCodebase} settings for a generated tree, or the path of any other source root
+ */
+final class BenchmarkCorpus {
+
+    static final String FIXTURES = "fixtures";
+    static final String FIXTURES_PREFIX = "com.hack.parser.test";
+    static final String GENERATED = "generated:";
+    /** About 1000 classes */
+    static final String GENERATED_DEFAULT = "generated:packages=20,classesPerPackage=50,callDepth=12,recursionCycles=20";
+
+    final Path sourceRoot;
+    final String packagePrefix;
+    /** Method to query, null to pick the most called one */
+    private final String targetSignature;
+    /** Whether the tree was generated for this run and is deleted by {@link #close} */
+    private final boolean generated;
+
+    private BenchmarkCorpus(Path sourceRoot, String packagePrefix, String targetSignature, boolean generated) {
+        this.sourceRoot = sourceRoot;
+        this.packagePrefix = packagePrefix;
+        this.targetSignature = targetSignature;
+        this.generated = generated;
+    }
+
+    static BenchmarkCorpus of(String corpus, String packagePrefix) throws IOException {
+        if (corpus.startsWith(GENERATED)) {
+            SyntheticCodebase.Generated codebase = SyntheticCodebase.parse(corpus.substring(GENERATED.length()))
+                    .generate();
+            return new BenchmarkCorpus(codebase.getSourceRoot(), codebase.getPackagePrefix(),
+                    codebase.getTargetSignature(), true);
+        }
+        if (!FIXTURES.equals(corpus)) {
+            return new BenchmarkCorpus(Paths.get(corpus), packagePrefix, null, false);
+        }
+        // Run from the repository root or from the benchmarks directory
+        for (Path candidate : new Path[]{Paths.get("src/main/java"), Paths.get("../src/main/java")}) {
+            if (Files.isDirectory(candidate.resolve("com/hack/parser/test"))) {
+                return new BenchmarkCorpus(candidate, FIXTURES_PREFIX, null, false);
+            }
+        }
+        throw new IOException("Fixtures not found, run the benchmarks from the repository root");
+    }
+
+    SourceIndexer.IndexedSources index(int threads) throws IOException {
+        return new SourceIndexer(sourceRoot, packagePrefix, threads, null).index();
+    }
+
+    /**
+     * The generated target, or else the declared method with the most callers, which tends to
+     * have the largest caller tree
+     */
+    int target(WorkspaceIndex index) {
+        if (targetSignature != null && index.signatures.id(targetSignature) >= 0) {
+            return index.signatures.id(targetSignature);
+        }
+        int target = -1;
+        for (int id = 0; id < index.callGraph.size(); id++) {
+            if (index.methodFile[id] >= 0
+                    && (target < 0 || index.callGraph.callerCount(id) > index.callGraph.callerCount(target))) {
+                target = id;
+            }
+        }
+        if (target < 0) {
+            throw new IllegalStateException("No indexed methods");
+        }
+        return target;
+    }
+
+    /**
+     * Delete a generated tree
+     */
+    void close() throws IOException {
+        if (!generated) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(sourceRoot)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.hack.parser.solver.enhanced;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the index from summaries that are already extracted: the interface implementation
+ * map, the call graph, and the whole {@link WorkspaceIndex} with its lookup tables
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexBenchmark {
+
+    @Param({BenchmarkCorpus.FIXTURES, BenchmarkCorpus.GENERATED_DEFAULT})
+    public String corpus;
+
+    @Param({BenchmarkCorpus.FIXTURES_PREFIX})
+    public String packagePrefix;
+
+    private BenchmarkCorpus benchmarkCorpus;
+    private SourceIndexer.IndexedSources sources;
+    private Map<String, FileSummary> summaries;
+    private WorkspaceIndex index;
+
+    @Setup
+    public void setUp() throws IOException {
+        benchmarkCorpus = BenchmarkCorpus.of(corpus, packagePrefix);
+        sources = benchmarkCorpus.index(ParallelSourceParser.defaultParallelism());
+        summaries = sources.getSummaries();
+        index = WorkspaceIndex.build(sources, benchmarkCorpus.packagePrefix);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        benchmarkCorpus.close();
+    }
+
+    @Benchmark
+    public int[][] buildInterfaceImplementationMap() {
+        return WorkspaceIndex.buildInterfaceImplementationMap(summaries, index.signatures, index.packagePrefix);
+    }
+
+    @Benchmark
+    public CallGraph buildEnhancedCallGraph() {
+        return WorkspaceIndex.buildEnhancedCallGraph(summaries, index.implementations, index.signatures,
+                index.packagePrefix);
+    }
+
+    @Benchmark
+    public WorkspaceIndex buildIndex() {
+        return WorkspaceIndex.build(sources, index.packagePrefix);
+    }
+}
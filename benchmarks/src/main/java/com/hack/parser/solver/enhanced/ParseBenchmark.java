@@ -0,0 +1,44 @@
+package com.hack.parser.solver.enhanced;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a source tree and summarizing every file, including call resolution
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({BenchmarkCorpus.FIXTURES, BenchmarkCorpus.GENERATED_DEFAULT})
+    public String corpus;
+
+    @Param({BenchmarkCorpus.FIXTURES_PREFIX})
+    public String packagePrefix;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private BenchmarkCorpus benchmarkCorpus;
+
+    @Setup
+    public void setUp() throws IOException {
+        benchmarkCorpus = BenchmarkCorpus.of(corpus, packagePrefix);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        benchmarkCorpus.close();
+    }
+
+    @Benchmark
+    public SourceIndexer.IndexedSources parseAllJavaFiles() throws IOException {
+        return benchmarkCorpus.index(threads);
+    }
+}
@@ -0,0 +1,74 @@
+package com.hack.parser.solver.enhanced;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answering one query against a built index: the caller tree of the target of the corpus, and
+ * writing it with the bodies of its methods in each layout
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+
+    @Param({BenchmarkCorpus.FIXTURES, BenchmarkCorpus.GENERATED_DEFAULT})
+    public String corpus;
+
+    @Param({BenchmarkCorpus.FIXTURES_PREFIX})
+    public String packagePrefix;
+
+    @Param({"TREE", "SHARED", "DAG"})
+    public MethodCallFinder.Layout layout;
+
+    private BenchmarkCorpus benchmarkCorpus;
+    private MethodCallFinder finder;
+    private WorkspaceIndex index;
+    private int target;
+    private MethodCallFinder.CallTreeNode tree;
+
+    @Setup
+    public void setUp() throws IOException {
+        benchmarkCorpus = BenchmarkCorpus.of(corpus, packagePrefix);
+        finder = new MethodCallFinder(benchmarkCorpus.sourceRoot, benchmarkCorpus.packagePrefix,
+                ParallelSourceParser.defaultParallelism(), null);
+        finder.setLayout(layout);
+        index = finder.buildIndex();
+        target = benchmarkCorpus.target(index);
+        tree = finder.buildCallTree(index, target);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        benchmarkCorpus.close();
+    }
+
+    @Benchmark
+    public MethodCallFinder.CallTreeNode buildTreeFromEntryPoint() {
+        return finder.buildCallTree(index, target);
+    }
+
+    /**
+     * Finding the first caller chains lazily, without building a tree
+     */
+    @Benchmark
+    public long firstCallerPaths() {
+        return index.directCalls.callerPaths(target).limit(100).count();
+    }
+
+    /**
+     * Writing a built tree, reading the method bodies from disk
+     */
+    @Benchmark
+    public void outputJsonTree() throws IOException {
+        JsonResultWriter writer = new JsonResultWriter(Writer.nullWriter(), finder.isCompact());
+        finder.writeResult(index, tree, writer);
+        writer.finish();
+    }
+}
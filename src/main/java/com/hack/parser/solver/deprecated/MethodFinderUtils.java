@@ -5,6 +5,7 @@ import com.github.javaparser.ast.PackageDeclaration;
 import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
 import com.github.javaparser.ast.body.MethodDeclaration;
 import com.github.javaparser.resolution.declarations.ResolvedMethodDeclaration;
+import com.hack.parser.solver.enhanced.CallableIndex;
 
 import java.util.Map;
 import java.util.Optional;
@@ -15,7 +16,8 @@ import java.util.Optional;
 public class MethodFinderUtils {
     
     /**
-     * Find a method declaration by class name and line number
+     * Find a method declaration by class name and line number. A line in a lambda or in a local
+     * or anonymous class belongs to the method around it.
      */
     public static MethodDeclaration findMethodByLine(String fullyQualifiedClassName, 
                                                    int lineNumber,
@@ -25,17 +27,12 @@ public class MethodFinderUtils {
             if (pkg.isEmpty()) continue;
             
             String packageName = pkg.get().getNameAsString();
+            if (!fullyQualifiedClassName.startsWith(packageName + ".")) continue;
             
-            for (ClassOrInterfaceDeclaration clazz : cu.findAll(ClassOrInterfaceDeclaration.class)) {
-                String fullClassName = packageName + "." + clazz.getNameAsString();
-                
-                if (fullClassName.equals(fullyQualifiedClassName)) {
-                    for (MethodDeclaration method : clazz.getMethods()) {
-                        if (containsLine(method, lineNumber)) {
-                            return method;
-                        }
-                    }
-                }
+            Optional<MethodDeclaration> method =
+                    CallableIndex.findMethodByLine(cu, fullyQualifiedClassName, lineNumber);
+            if (method.isPresent()) {
+                return method.get();
             }
         }
         return null;
@@ -0,0 +1,342 @@
+package com.hack.parser.solver.enhanced;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Local HTTP endpoint that answers queries against a resident {@link WorkspaceIndex}, so the
+ * source root is parsed once per workspace rather than once per question. Queries run on a
+ * bounded pool; when every thread is busy and the queue is full, a request is answered with 503
+ * right away, so the server never stops accepting and serving the connections it can handle.
+ * <p>
+ * Endpoints, all GET, answering JSON:
+ * <ul>
+ *     <li>{@code /callers?class=<class>&line=<n>} or {@code /callers?signature=<signature>}, with an
+ *     optional {@code layout=tree|shared|dag}: the same document {@link MethodCallFinder} prints</li>
+ *     <li>{@code /callees?signature=<signature>}: callees including interface implementations</li>
+ *     <li>{@code /method?signature=<signature>}: body and comments of a method</li>
+ *     <li>{@code /paths?signature=<signature>&limit=<n>}: the first n caller chains of a method, 1000
+ *     when no limit is given, each a list of signatures from the method up to one without callers.
+ *     Chains follow calls as written, without interface implementations, in the order
+ *     {@link com.hack.parser.solver.fixed.RecursiveCallerFinder} prints them</li>
+ *     <li>{@code /stats}: size, hit rate, evictions and invalidations of the result cache, and the
+ *     {@link PhaseProfiler} totals of every phase so far</li>
+ * </ul>
+ */
+@Slf4j
+public class AnalysisServer implements Closeable {
+
+    /** System property that makes {@link MethodCallFinder#main} serve on this port, 0 for any free port */
+    public static final String PORT_PROPERTY = "parser.serve";
+
+    private static final int DEFAULT_PATH_LIMIT = 1000;
+
+    private final HttpServer server;
+    /** Runs the HttpServer's exchanges, which only hand the request over to the query pool */
+    private final ExecutorService executor;
+    private final ExecutorService queryExecutor;
+    private final Supplier<WorkspaceIndex> index;
+    private final Path sourceRoot;
+    private final String packagePrefix;
+    private final QueryResultCache resultCache;
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    private AnalysisServer(HttpServer server, ExecutorService executor, ExecutorService queryExecutor,
+                           Supplier<WorkspaceIndex> index, Path sourceRoot, String packagePrefix,
+                           QueryResultCache resultCache) {
+        this.server = server;
+        this.executor = executor;
+        this.queryExecutor = queryExecutor;
+        this.index = index;
+        this.sourceRoot = sourceRoot;
+        this.packagePrefix = packagePrefix;
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Serve on the loopback interface
+     *
+     * @param index   the index each request reads, e.g. a fixed one or {@link WorkspaceWatcher#snapshot}
+     * @param threads number of requests handled at the same time
+     * @param resultCache results of earlier /callers requests, or null; with an index that changes, it
+     *                    has to be invalidated on each update, see {@link WorkspaceWatcher#addUpdateListener}
+     */
+    public static AnalysisServer start(int port, Supplier<WorkspaceIndex> index, Path sourceRoot,
+                                       String packagePrefix, int threads, QueryResultCache resultCache)
+            throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        // Exchanges are only handed over, so a few threads keep up with any number of connections
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, 4), daemonThreads("analysis-http-"));
+        ExecutorService queryExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 16), daemonThreads("analysis-server-"),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        AnalysisServer analysisServer = new AnalysisServer(server, executor, queryExecutor, index, sourceRoot,
+                packagePrefix, resultCache);
+        server.createContext("/callers", analysisServer.handler(analysisServer::callers));
+        server.createContext("/callees", analysisServer.handler(analysisServer::callees));
+        server.createContext("/method", analysisServer.handler(analysisServer::method));
+        server.createContext("/paths", analysisServer.handler(analysisServer::paths));
+        server.createContext("/stats", analysisServer.handler(analysisServer::stats));
+        server.setExecutor(executor);
+        server.start();
+        log.info("Serving queries on http://" + server.getAddress().getHostString() + ":" + analysisServer.getPort());
+        return analysisServer;
+    }
+
+    private static ThreadFactory daemonThreads(String namePrefix) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, namePrefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+        queryExecutor.shutdownNow();
+        if (resultCache != null) {
+            log.info("Query cache: " + resultCache);
+        }
+    }
+
+    private void callers(Map<String, String> query, HttpExchange exchange) throws IOException {
+        // Each request gets its own finder, so concurrent requests share nothing but the index
+        MethodCallFinder finder = new MethodCallFinder(sourceRoot, packagePrefix, 1, null);
+        finder.setResultCache(resultCache);
+        String layout = query.get("layout");
+        if (layout != null) {
+            try {
+                finder.setLayout(MethodCallFinder.Layout.valueOf(layout.toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, "Unknown layout: " + layout);
+                return;
+            }
+        }
+
+        WorkspaceIndex workspaceIndex = index.get();
+        int target;
+        if (query.containsKey("signature")) {
+            target = declaredMethod(workspaceIndex, query.get("signature"));
+        } else if (query.containsKey("class") && query.containsKey("line")) {
+            int line;
+            try {
+                line = Integer.parseInt(query.get("line"));
+            } catch (NumberFormatException e) {
+                sendError(exchange, 400, "Invalid line number: " + query.get("line"));
+                return;
+            }
+            target = finder.findTarget(workspaceIndex, query.get("class"), line);
+        } else {
+            sendError(exchange, 400, "Expected class and line, or signature");
+            return;
+        }
+        if (target < 0) {
+            sendError(exchange, 404, "No indexed method found");
+            return;
+        }
+
+        try (Writer out = startJson(exchange, 200)) {
+            finder.writeCallerChains(workspaceIndex, target, out);
+        }
+    }
+
+    private void callees(Map<String, String> query, HttpExchange exchange) throws IOException {
+        WorkspaceIndex workspaceIndex = index.get();
+        String signature = query.get("signature");
+        if (signature == null) {
+            sendError(exchange, 400, "Expected signature");
+            return;
+        }
+        if (workspaceIndex.getSignatures().id(signature) < 0) {
+            sendError(exchange, 404, "Unknown method: " + signature);
+            return;
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("signature", signature);
+        result.put("callees", workspaceIndex.getCallees(signature));
+        sendJson(exchange, 200, result);
+    }
+
+    private void method(Map<String, String> query, HttpExchange exchange) throws IOException {
+        WorkspaceIndex workspaceIndex = index.get();
+        String signature = query.get("signature");
+        if (signature == null) {
+            sendError(exchange, 400, "Expected signature");
+            return;
+        }
+        if (declaredMethod(workspaceIndex, signature) < 0) {
+            sendError(exchange, 404, "No indexed method: " + signature);
+            return;
+        }
+        MethodCallFinder finder = new MethodCallFinder(sourceRoot, packagePrefix, 1, null);
+        sendJson(exchange, 200, finder.methodDetails(workspaceIndex, signature));
+    }
+
+    private void paths(Map<String, String> query, HttpExchange exchange) throws IOException {
+        WorkspaceIndex workspaceIndex = index.get();
+        String signature = query.get("signature");
+        if (signature == null) {
+            sendError(exchange, 400, "Expected signature");
+            return;
+        }
+        int limit;
+        try {
+            limit = Integer.parseInt(query.getOrDefault("limit", String.valueOf(DEFAULT_PATH_LIMIT)));
+        } catch (NumberFormatException e) {
+            limit = -1;
+        }
+        if (limit < 0) {
+            sendError(exchange, 400, "Invalid limit: " + query.get("limit"));
+            return;
+        }
+        int target = workspaceIndex.getSignatures().id(signature);
+        if (target < 0) {
+            sendError(exchange, 404, "Unknown method: " + signature);
+            return;
+        }
+
+        // Chains are found while they are written, so only the ones asked for are looked for
+        SignatureTable signatures = workspaceIndex.getSignatures();
+        Iterator<List<Integer>> paths = workspaceIndex.getDirectCalls().callerPathIterator(target);
+        try (Writer out = startJson(exchange, 200)) {
+            JsonWriter json = new JsonWriter(out);
+            json.setIndent("  ");
+            json.beginObject();
+            json.name("signature").value(signature);
+            json.name("paths").beginArray();
+            for (int i = 0; i < limit && paths.hasNext(); i++) {
+                json.beginArray();
+                for (int method : paths.next()) {
+                    json.value(signatures.name(method));
+                }
+                json.endArray();
+            }
+            json.endArray();
+            json.name("truncated").value(paths.hasNext());
+            json.endObject();
+            json.flush();
+        }
+    }
+
+    private void stats(Map<String, String> query, HttpExchange exchange) throws IOException {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("cacheEnabled", resultCache != null);
+        if (resultCache != null) {
+            result.put("entries", resultCache.size());
+            result.put("weight", resultCache.getWeight());
+            result.put("maxWeight", resultCache.getMaxWeight());
+            result.put("hits", resultCache.getHitCount());
+            result.put("misses", resultCache.getMissCount());
+            result.put("hitRate", resultCache.getHitRate());
+            result.put("evictions", resultCache.getEvictionCount());
+            result.put("invalidations", resultCache.getInvalidationCount());
+        }
+        result.put("phases", PhaseProfiler.global().report());
+        sendJson(exchange, 200, result);
+    }
+
+    /**
+     * Id of a method declared in an indexed file, -1 otherwise
+     */
+    private static int declaredMethod(WorkspaceIndex workspaceIndex, String signature) {
+        return signature == null || workspaceIndex.getFilePath(signature) == null ? -1
+                : workspaceIndex.getSignatures().id(signature);
+    }
+
+    private interface Endpoint {
+        void handle(Map<String, String> query, HttpExchange exchange) throws IOException;
+    }
+
+    private HttpHandler handler(Endpoint endpoint) {
+        return exchange -> {
+            try {
+                queryExecutor.execute(() -> answer(endpoint, exchange));
+            } catch (RejectedExecutionException e) {
+                // Every query thread is busy and the queue is full
+                try (exchange) {
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    sendError(exchange, 503, "Too many queries in progress, retry later");
+                }
+            }
+        };
+    }
+
+    private void answer(Endpoint endpoint, HttpExchange exchange) {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Only GET is supported");
+                return;
+            }
+            endpoint.handle(parseQuery(exchange.getRequestURI().getRawQuery()), exchange);
+        } catch (Exception e) {
+            log.error("Error answering " + exchange.getRequestURI(), e);
+            // Once the headers are out, closing the exchange is the only way left to signal the failure
+            if (exchange.getResponseCode() < 0) {
+                try {
+                    sendError(exchange, 500, "Internal error: " + e);
+                } catch (IOException sendFailure) {
+                    log.info("Failed to send the error response: " + sendFailure.getMessage());
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int equals = parameter.indexOf('=');
+            String name = equals < 0 ? parameter : parameter.substring(0, equals);
+            String value = equals < 0 ? "" : parameter.substring(equals + 1);
+            query.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    /**
+     * Send the headers of a streamed JSON response and open its body
+     */
+    private static Writer startJson(HttpExchange exchange, int status) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, 0);
+        return new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+    }
+
+    private void sendJson(HttpExchange exchange, int status, Object body) throws IOException {
+        try (Writer out = startJson(exchange, status)) {
+            gson.toJson(body, out);
+        }
+    }
+
+    private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        sendJson(exchange, status, Collections.singletonMap("error", message));
+    }
+}
@@ -0,0 +1,244 @@
+package com.hack.parser.solver.enhanced;
+
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Immutable call graph over signature ids in compressed sparse row form, holding both directions.
+ * The callees of method {@code id} are {@code callee(i)} for {@code calleesFrom(id) <= i < calleesTo(id)},
+ * and its callers are laid out the same way, so a walk in either direction reads contiguous
+ * slices of two int arrays. Ids outside the graph, including -1 for unknown signatures, have no edges.
+ * <p>
+ * Callees keep the order they were given in. Callers are in id order.
+ */
+public final class CallGraph {
+
+    private final SignatureTable signatures;
+    private final int[] calleeOffsets;
+    private final int[] calleeTargets;
+    private final int[] callerOffsets;
+    private final int[] callerTargets;
+    /** Methods in a cycle with at least one other method, found on first use */
+    private volatile BitSet cyclic;
+
+    private CallGraph(SignatureTable signatures, int[] calleeOffsets, int[] calleeTargets) {
+        this.signatures = signatures;
+        this.calleeOffsets = calleeOffsets;
+        this.calleeTargets = calleeTargets;
+
+        // The reverse direction is the transpose: count callers per callee, then fill the slices
+        int size = calleeOffsets.length - 1;
+        int[] offsets = new int[size + 1];
+        for (int target : calleeTargets) {
+            offsets[target + 1]++;
+        }
+        for (int id = 0; id < size; id++) {
+            offsets[id + 1] += offsets[id];
+        }
+        int[] targets = new int[calleeTargets.length];
+        int[] next = Arrays.copyOf(offsets, size);
+        // Going over the callers by id leaves every slice in id order
+        for (int caller = 0; caller < size; caller++) {
+            for (int i = calleeOffsets[caller]; i < calleeOffsets[caller + 1]; i++) {
+                targets[next[calleeTargets[i]]++] = caller;
+            }
+        }
+        this.callerOffsets = offsets;
+        this.callerTargets = targets;
+    }
+
+    /**
+     * @param callees callee ids per caller id, without duplicates; missing trailing ids have no callees
+     */
+    static CallGraph of(int[][] callees, SignatureTable signatures) {
+        return withCallees(null, callees, signatures);
+    }
+
+    /**
+     * A graph with the callees of some methods replaced and room for ids added to the table since
+     *
+     * @param changed new callees per caller id, null for methods whose callees are unchanged
+     */
+    CallGraph withCallees(int[][] changed, SignatureTable table) {
+        return withCallees(this, changed, table);
+    }
+
+    private static CallGraph withCallees(CallGraph base, int[][] changed, SignatureTable table) {
+        int size = table.size();
+        int[] offsets = new int[size + 1];
+        for (int id = 0; id < size; id++) {
+            int[] replaced = changed != null && id < changed.length ? changed[id] : null;
+            int count = replaced != null ? replaced.length : base != null ? base.calleeCount(id) : 0;
+            offsets[id + 1] = offsets[id] + count;
+        }
+        int[] targets = new int[offsets[size]];
+        for (int id = 0; id < size; id++) {
+            int[] replaced = changed != null && id < changed.length ? changed[id] : null;
+            if (replaced != null) {
+                System.arraycopy(replaced, 0, targets, offsets[id], replaced.length);
+            } else if (base != null && id < base.size()) {
+                System.arraycopy(base.calleeTargets, base.calleeOffsets[id], targets, offsets[id], base.calleeCount(id));
+            }
+        }
+        return new CallGraph(table, offsets, targets);
+    }
+
+    public SignatureTable getSignatures() {
+        return signatures;
+    }
+
+    /**
+     * Number of method ids, including those without any edges
+     */
+    public int size() {
+        return calleeOffsets.length - 1;
+    }
+
+    public int edgeCount() {
+        return calleeTargets.length;
+    }
+
+    public int calleesFrom(int id) {
+        return id >= 0 && id < size() ? calleeOffsets[id] : 0;
+    }
+
+    public int calleesTo(int id) {
+        return id >= 0 && id < size() ? calleeOffsets[id + 1] : 0;
+    }
+
+    public int callee(int index) {
+        return calleeTargets[index];
+    }
+
+    public int calleeCount(int id) {
+        return calleesTo(id) - calleesFrom(id);
+    }
+
+    public int callersFrom(int id) {
+        return id >= 0 && id < size() ? callerOffsets[id] : 0;
+    }
+
+    public int callersTo(int id) {
+        return id >= 0 && id < size() ? callerOffsets[id + 1] : 0;
+    }
+
+    public int caller(int index) {
+        return callerTargets[index];
+    }
+
+    public int callerCount(int id) {
+        return callersTo(id) - callersFrom(id);
+    }
+
+    /**
+     * Whether the method is part of a call cycle with at least one other method. A method that only
+     * calls itself is not.
+     */
+    public boolean inCycle(int id) {
+        BitSet result = cyclic;
+        if (result == null) {
+            result = findCycles();
+            cyclic = result;
+        }
+        return id >= 0 && result.get(id);
+    }
+
+    /**
+     * Tarjan's strongly connected components, with explicit stacks so deep call chains cannot
+     * overflow the thread stack
+     */
+    private BitSet findCycles() {
+        int size = size();
+        BitSet result = new BitSet(size);
+        int[] order = new int[size];
+        int[] low = new int[size];
+        Arrays.fill(order, -1);
+        int[] component = new int[size];
+        int componentSize = 0;
+        BitSet onComponentStack = new BitSet(size);
+        int[] path = new int[size];
+        int[] nextEdge = new int[size];
+        int pathSize = 0;
+        int counter = 0;
+
+        for (int root = 0; root < size; root++) {
+            if (order[root] >= 0) {
+                continue;
+            }
+            order[root] = low[root] = counter++;
+            component[componentSize++] = root;
+            onComponentStack.set(root);
+            path[pathSize] = root;
+            nextEdge[pathSize++] = calleeOffsets[root];
+
+            while (pathSize > 0) {
+                int method = path[pathSize - 1];
+                if (nextEdge[pathSize - 1] < calleeOffsets[method + 1]) {
+                    int callee = calleeTargets[nextEdge[pathSize - 1]++];
+                    if (order[callee] < 0) {
+                        order[callee] = low[callee] = counter++;
+                        component[componentSize++] = callee;
+                        onComponentStack.set(callee);
+                        path[pathSize] = callee;
+                        nextEdge[pathSize++] = calleeOffsets[callee];
+                    } else if (onComponentStack.get(callee)) {
+                        low[method] = Math.min(low[method], order[callee]);
+                    }
+                    continue;
+                }
+
+                pathSize--;
+                if (pathSize > 0) {
+                    int caller = path[pathSize - 1];
+                    low[caller] = Math.min(low[caller], low[method]);
+                }
+                if (low[method] == order[method]) {
+                    int top = componentSize;
+                    int member;
+                    do {
+                        member = component[--componentSize];
+                        onComponentStack.clear(member);
+                    } while (member != method);
+                    if (top - componentSize > 1) {
+                        for (int i = componentSize; i < top; i++) {
+                            result.set(component[i]);
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Caller chains of a method, found lazily as they are consumed: each is the list of ids from
+     * the method up through its callers to one that has none, skipping callers already on the
+     * chain. Taking the first few costs only the walk to those; a parallel stream splits the
+     * walk at the first node with several callers.
+     */
+    public Stream<List<Integer>> callerPaths(int target) {
+        return StreamSupport.stream(new CallerPathSpliterator(this, target), false);
+    }
+
+    /**
+     * The chains of {@link #callerPaths}, one at a time
+     */
+    public Iterator<List<Integer>> callerPathIterator(int target) {
+        return Spliterators.iterator(new CallerPathSpliterator(this, target));
+    }
+
+    /**
+     * Copy of the callees of a method
+     */
+    int[] callees(int id) {
+        return Arrays.copyOfRange(calleeTargets, calleesFrom(id), calleesTo(id));
+    }
+
+    /**
+     * Copy of the callers of a method
+     */
+    int[] callers(int id) {
+        return Arrays.copyOfRange(callerTargets, callersFrom(id), callersTo(id));
+    }
+}
@@ -0,0 +1,239 @@
+package com.hack.parser.solver.enhanced;
+
+import com.github.javaparser.Range;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memoized results of {@code MethodCallExpr.resolve()}, keyed by the content hash of the file and
+ * the range of the call expression. A call that could not be resolved is remembered as well, so it
+ * is not attempted again.
+ * <p>
+ * Resolutions recorded while a file is summarized only become visible once they are committed
+ * together with the dependency fingerprints of that file. A later run that reuses them gets those
+ * fingerprints back, and has to re-resolve the file (after {@link #invalidate}) if its dependencies
+ * have changed since. Entries live in memory for the lifetime of the cache and, when a directory is
+ * given, are also written to disk as one JSON file per content hash.
+ */
+@Slf4j
+public class CallResolutionCache {
+
+    /** System property used to keep call-site resolutions on disk between runs */
+    public static final String CACHE_DIR_PROPERTY = "parser.resolutionCacheDir";
+
+    /** Bump when the layout changes so old entries are ignored */
+    static final int FORMAT_VERSION = 1;
+
+    private final Path directory;
+    private final Map<String, FileResolutions> files = new ConcurrentHashMap<>();
+    private final Map<String, String> signatures = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+
+    /**
+     * @param directory where entries are persisted, or null to keep them in memory only
+     */
+    public CallResolutionCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Disk-backed cache configured through -Dparser.resolutionCacheDir, or null when it is not set
+     */
+    public static CallResolutionCache fromSystemProperty() {
+        String dir = System.getProperty(CACHE_DIR_PROPERTY);
+        return dir == null || dir.isBlank() ? null : new CallResolutionCache(Paths.get(dir));
+    }
+
+    /**
+     * Disk-backed when -Dparser.resolutionCacheDir is set, in memory only otherwise
+     */
+    public static CallResolutionCache create() {
+        CallResolutionCache diskCache = fromSystemProperty();
+        return diskCache != null ? diskCache : new CallResolutionCache(null);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Resolutions for a file with this content, loading them from disk the first time
+     */
+    FileResolutions forFile(String contentHash) {
+        return files.computeIfAbsent(contentHash, this::load);
+    }
+
+    /**
+     * Make the resolutions recorded for this content visible to later lookups
+     *
+     * @param fingerprints dependency fingerprints of the file the resolutions were made in
+     */
+    void commit(String contentHash, Map<String, String> fingerprints) {
+        FileResolutions resolutions = files.get(contentHash);
+        if (resolutions == null || resolutions.fingerprints != null) {
+            return;
+        }
+        resolutions.fingerprints = new TreeMap<>(fingerprints);
+        if (directory != null) {
+            store(contentHash, resolutions);
+        }
+    }
+
+    /**
+     * Drop everything known about this content, e.g. because declarations it depends on changed
+     */
+    void invalidate(String contentHash) {
+        files.remove(contentHash);
+        if (directory != null) {
+            try {
+                Files.deleteIfExists(entryPath(contentHash));
+            } catch (IOException e) {
+                log.info("Failed to delete resolution cache entry for " + contentHash + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Forget in-memory entries for content that is no longer indexed. Entries on disk are kept.
+     */
+    void retainOnly(Collection<String> contentHashes) {
+        files.keySet().retainAll(new HashSet<>(contentHashes));
+    }
+
+    static String siteKey(Range range) {
+        return range.begin.line + ":" + range.begin.column + "-" + range.end.line + ":" + range.end.column;
+    }
+
+    private FileResolutions load(String contentHash) {
+        FileResolutions resolutions = new FileResolutions();
+        if (directory == null) {
+            return resolutions;
+        }
+        Path entry = entryPath(contentHash);
+        if (!Files.isRegularFile(entry)) {
+            return resolutions;
+        }
+        try (Reader reader = Files.newBufferedReader(entry, StandardCharsets.UTF_8)) {
+            StoredResolutions stored = gson.fromJson(reader, StoredResolutions.class);
+            if (stored != null && stored.version == FORMAT_VERSION && stored.fingerprints != null) {
+                stored.sites.forEach((site, resolution) -> resolutions.sites.put(site, intern(resolution)));
+                resolutions.fingerprints = stored.fingerprints;
+            }
+        } catch (IOException | JsonParseException e) {
+            log.info("Ignoring unreadable resolution cache entry " + entry + ": " + e.getMessage());
+        }
+        return resolutions;
+    }
+
+    private void store(String contentHash, FileResolutions resolutions) {
+        Path entry = entryPath(contentHash);
+        StoredResolutions stored = new StoredResolutions();
+        stored.fingerprints = resolutions.fingerprints;
+        stored.sites = new TreeMap<>(resolutions.sites);
+        try {
+            Files.createDirectories(entry.getParent());
+            // Write to a temp file first so concurrent readers never see a partial entry
+            Path temp = Files.createTempFile(entry.getParent(), contentHash, ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                gson.toJson(stored, writer);
+            }
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.info("Failed to write resolution cache entry " + entry + ": " + e.getMessage());
+        }
+    }
+
+    private Path entryPath(String contentHash) {
+        return directory.resolve(contentHash.substring(0, 2)).resolve(contentHash + ".json");
+    }
+
+    /**
+     * Many call sites resolve to the same few methods, so keep one copy of each string
+     */
+    private Resolution intern(Resolution resolution) {
+        if (resolution.signature == null) {
+            return Resolution.UNRESOLVED;
+        }
+        String declaringType = resolution.declaringType == null ? null
+                : signatures.computeIfAbsent(resolution.declaringType, s -> s);
+        return new Resolution(signatures.computeIfAbsent(resolution.signature, s -> s), declaringType);
+    }
+
+    /**
+     * Call-site resolutions of one file content. Lookups only succeed once the file is committed;
+     * until then resolutions are recorded.
+     */
+    class FileResolutions {
+        final Map<String, Resolution> sites = new ConcurrentHashMap<>();
+        /** Dependency fingerprints at the time of the commit, null while recording */
+        volatile Map<String, String> fingerprints;
+
+        boolean isCommitted() {
+            return fingerprints != null;
+        }
+
+        Map<String, String> getFingerprints() {
+            return fingerprints;
+        }
+
+        /**
+         * @return the remembered resolution of the call at this range, or null if it must be resolved
+         */
+        Resolution lookup(String site) {
+            Resolution resolution = isCommitted() ? sites.get(site) : null;
+            (resolution != null ? hits : misses).incrementAndGet();
+            return resolution;
+        }
+
+        void record(String site, Resolution resolution) {
+            if (!isCommitted()) {
+                sites.put(site, intern(resolution));
+            }
+        }
+    }
+
+    /**
+     * Qualified signature and declaring type of a resolved call, or the unresolvable marker
+     */
+    static class Resolution {
+        static final Resolution UNRESOLVED = new Resolution(null, null);
+
+        final String signature;
+        final String declaringType;
+
+        Resolution(String signature, String declaringType) {
+            this.signature = signature;
+            this.declaringType = declaringType;
+        }
+
+        boolean isResolved() {
+            return signature != null;
+        }
+    }
+
+    private static class StoredResolutions {
+        int version = FORMAT_VERSION;
+        Map<String, String> fingerprints;
+        Map<String, Resolution> sites = new TreeMap<>();
+    }
+}
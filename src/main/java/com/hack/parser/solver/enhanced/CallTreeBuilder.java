@@ -0,0 +1,198 @@
+package com.hack.parser.solver.enhanced;
+
+import java.util.*;
+
+/**
+ * Builds the call tree of one {@link MethodCallFinder} query: the paths from an entry point down
+ * to the target method, with every callee that cannot lead to the target left out.
+ * <p>
+ * Unless a method is part of a call cycle, the tree below it does not depend on how it was
+ * reached, so it is built once per query and the same node is reused wherever the method appears.
+ * The result is a DAG of shared nodes that reads like the fully expanded tree. Methods in a cycle
+ * are still expanded per path, because which callees are cut to break the cycle depends on the
+ * methods above them.
+ * <p>
+ * Before anything is built, the methods that can reach the target at all are found with one walk
+ * over the reverse edges. Only those are expanded, so the work done for a query depends on the
+ * part of the graph above the target rather than on the size of the workspace.
+ */
+class CallTreeBuilder {
+
+    private final WorkspaceIndex index;
+    private final CallGraph callGraph;
+    private final int target;
+    /** Methods from which the target can be reached */
+    private final BitSet canReach;
+    /** Subtree per method outside a cycle, null if the target cannot be reached from it */
+    private final Map<Integer, MethodCallFinder.CallTreeNode> subtrees = new HashMap<>();
+    private final BitSet built = new BitSet();
+    /** Methods on the path from the entry point to the current method */
+    private final BitSet visited = new BitSet();
+    /** The path itself: per method its node and the next of its callees to try */
+    private int[] pathMethods = new int[16];
+    private MethodCallFinder.CallTreeNode[] pathNodes = new MethodCallFinder.CallTreeNode[16];
+    private int[] nextCallee = new int[16];
+    private int depth;
+    /** Subtree of the method {@link #enter} did not push */
+    private MethodCallFinder.CallTreeNode entered;
+    /** Nodes created and child links added, shared nodes counted once */
+    int nodeCount;
+    int edgeCount;
+
+    CallTreeBuilder(WorkspaceIndex index, int target) {
+        this.index = index;
+        this.callGraph = index.callGraph;
+        this.target = target;
+        this.canReach = methodsReaching(target);
+    }
+
+    /**
+     * Entry points from which the target can be reached, in the order they are tried
+     */
+    int[] reachableEntryPoints() {
+        List<Integer> entryPoints = new ArrayList<>();
+        for (int method = canReach.nextSetBit(0); method >= 0; method = canReach.nextSetBit(method + 1)) {
+            if (index.entryPointRank[method] >= 0) {
+                entryPoints.add(method);
+            }
+        }
+        entryPoints.sort(Comparator.comparingInt(method -> index.entryPointRank[method]));
+        return entryPoints.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    boolean canReach(int method) {
+        return canReach.get(method);
+    }
+
+    /**
+     * The target and every method from which it can be reached
+     */
+    BitSet methodsReaching() {
+        return (BitSet) canReach.clone();
+    }
+
+    /**
+     * The tree below this method, or null if the target cannot be reached from it. The walk keeps
+     * its path in arrays rather than on the thread stack, so chains of any length can be built.
+     */
+    MethodCallFinder.CallTreeNode build(int start) {
+        if (!enter(start)) {
+            return entered;
+        }
+        MethodCallFinder.CallTreeNode finished = null;
+        while (depth > 0) {
+            int top = depth - 1;
+            int current = pathMethods[top];
+            // Unless this is the target, keep the callees in our package prefix that lead to it
+            if (current != target && nextCallee[top] < callGraph.calleesTo(current)) {
+                int callee = callGraph.callee(nextCallee[top]++);
+                if (index.signatures.name(callee).startsWith(index.packagePrefix) && !enter(callee)) {
+                    addChild(top, entered);
+                }
+                continue;
+            }
+            finished = leave();
+            if (depth > 0) {
+                addChild(depth - 1, finished);
+            }
+        }
+        return finished;
+    }
+
+    /**
+     * Push a node for the method onto the path, or return false and leave its known subtree in
+     * {@link #entered}
+     */
+    private boolean enter(int method) {
+        if (visited.get(method) || !canReach.get(method)) {
+            entered = null; // Avoid cycles, and callees that never lead to the target
+            return false;
+        }
+        if (!callGraph.inCycle(method) && built.get(method)) {
+            entered = subtrees.get(method);
+            return false;
+        }
+
+        visited.set(method);
+        if (depth == pathMethods.length) {
+            pathMethods = Arrays.copyOf(pathMethods, depth * 2);
+            pathNodes = Arrays.copyOf(pathNodes, depth * 2);
+            nextCallee = Arrays.copyOf(nextCallee, depth * 2);
+        }
+        pathMethods[depth] = method;
+        pathNodes[depth] = createNode(method);
+        nextCallee[depth] = callGraph.calleesFrom(method);
+        depth++;
+        return true;
+    }
+
+    /**
+     * Pop the method whose callees are all done, returning its subtree
+     */
+    private MethodCallFinder.CallTreeNode leave() {
+        depth--;
+        int method = pathMethods[depth];
+        MethodCallFinder.CallTreeNode node = pathNodes[depth];
+        pathNodes[depth] = null;
+        if (method != target && node.children.isEmpty()) {
+            node = null;
+        }
+
+        visited.clear(method);
+        if (!callGraph.inCycle(method)) {
+            built.set(method);
+            subtrees.put(method, node);
+        }
+        return node;
+    }
+
+    private void addChild(int frame, MethodCallFinder.CallTreeNode child) {
+        if (child != null) {
+            pathNodes[frame].children.add(child);
+            edgeCount++;
+        }
+    }
+
+    /**
+     * The target and every method with a path to it. An edge only counts if its callee is in the
+     * package prefix, since the tree never descends into other callees.
+     */
+    private BitSet methodsReaching(int target) {
+        BitSet reached = new BitSet();
+        if (target < 0) {
+            return reached;
+        }
+        int[] pending = new int[16];
+        int size = 0;
+        pending[size++] = target;
+        reached.set(target);
+        while (size > 0) {
+            int callee = pending[--size];
+            if (!index.signatures.name(callee).startsWith(index.packagePrefix)) {
+                continue;
+            }
+            for (int i = callGraph.callersFrom(callee); i < callGraph.callersTo(callee); i++) {
+                int caller = callGraph.caller(i);
+                if (!reached.get(caller)) {
+                    reached.set(caller);
+                    if (size == pending.length) {
+                        pending = Arrays.copyOf(pending, size * 2);
+                    }
+                    pending[size++] = caller;
+                }
+            }
+        }
+        return reached;
+    }
+
+    private MethodCallFinder.CallTreeNode createNode(int method) {
+        nodeCount++;
+        MethodCallFinder.CallTreeNode node = new MethodCallFinder.CallTreeNode();
+        node.method = index.signatures.name(method);
+        int file = index.methodFile[method];
+        node.file = file < 0 ? "unknown" : index.filePaths.name(file);
+        node.line = index.methodLine[method];
+        node.children = new ArrayList<>();
+        return node;
+    }
+}
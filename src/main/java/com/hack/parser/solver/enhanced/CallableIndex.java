@@ -0,0 +1,286 @@
+package com.hack.parser.solver.enhanced;
+
+import com.github.javaparser.Position;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.*;
+import com.github.javaparser.ast.expr.LambdaExpr;
+import com.github.javaparser.ast.expr.ObjectCreationExpr;
+import com.github.javaparser.ast.stmt.LocalClassDeclarationStmt;
+import com.github.javaparser.ast.stmt.LocalRecordDeclarationStmt;
+
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * Line ranges of every callable body in one source file: methods, constructors, initializers and
+ * lambdas, including those of nested, local and anonymous classes. It answers which callable of a
+ * class a line belongs to, the way a stack trace frame or a query names them, in O(log n).
+ * <p>
+ * Callables are kept in the order they begin in the file, each with the index of the callable
+ * enclosing it. The last callable that begins at or before a line is the innermost one containing
+ * it or lies inside one of the callables that do, so the answer is found by a binary search and a
+ * short walk up the enclosing callables.
+ */
+public final class CallableIndex {
+
+    public enum Kind {
+        METHOD, CONSTRUCTOR, INITIALIZER, LAMBDA
+    }
+
+    /**
+     * Per class in the file, the names it can be looked up by: package plus simple name (the form
+     * of {@link FileSummary.MethodSummary#getClassName()}), the canonical name and the binary name
+     * a stack trace uses, such as {@code com.example.Outer$Inner} or {@code com.example.Outer$1}
+     */
+    String[][] classNames;
+    Kind[] kinds;
+    /** Index in classNames of the class whose code the callable is compiled into */
+    int[] owners;
+    int[] beginLines;
+    int[] endLines;
+    /** Index of the innermost enclosing callable, -1 for none */
+    int[] parents;
+    /**
+     * Index in the file's methods of the method declaration the callable is or is nested in, whose
+     * calls include its own; -1 if it is not inside a method, e.g. a constructor or a field initializer
+     */
+    int[] methods;
+
+    public int size() {
+        return kinds.length;
+    }
+
+    public Kind getKind(int callable) {
+        return kinds[callable];
+    }
+
+    /**
+     * Binary name of the class the callable is compiled into
+     */
+    public String getClassName(int callable) {
+        String[] names = classNames[owners[callable]];
+        return names[names.length - 1];
+    }
+
+    public int getBeginLine(int callable) {
+        return beginLines[callable];
+    }
+
+    public int getEndLine(int callable) {
+        return endLines[callable];
+    }
+
+    public int getMethod(int callable) {
+        return methods[callable];
+    }
+
+    /**
+     * The innermost callable of the class that contains the line, or -1
+     *
+     * @param className any of the names in {@link #classNames}
+     */
+    public int find(String className, int line) {
+        boolean[] matching = new boolean[classNames.length];
+        boolean any = false;
+        for (int i = 0; i < classNames.length; i++) {
+            for (String name : classNames[i]) {
+                if (name.equals(className)) {
+                    matching[i] = true;
+                    any = true;
+                }
+            }
+        }
+        if (!any) {
+            return -1;
+        }
+
+        // Last callable beginning at or before the line
+        int low = 0;
+        int high = kinds.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (beginLines[mid] <= line) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        for (int callable = high; callable >= 0; callable = parents[callable]) {
+            if (endLines[callable] >= line && matching[owners[callable]]) {
+                return callable;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The method whose calls include the line, for finders that work on the CompilationUnit itself
+     *
+     * @see WorkspaceIndex#findMethodByLine
+     */
+    public static Optional<MethodDeclaration> findMethodByLine(CompilationUnit cu, String className, int line) {
+        List<MethodDeclaration> methods = cu.findAll(MethodDeclaration.class);
+        Map<MethodDeclaration, Integer> methodIndexes = new IdentityHashMap<>();
+        for (int i = 0; i < methods.size(); i++) {
+            methodIndexes.put(methods.get(i), i);
+        }
+        CallableIndex callables = of(cu, method -> methodIndexes.getOrDefault(method, -1));
+        int callable = callables.find(className, line);
+        int method = callable < 0 ? -1 : callables.methods[callable];
+        return method < 0 ? Optional.empty() : Optional.of(methods.get(method));
+    }
+
+    /**
+     * @param methodIndex index of a method declaration in the file's methods, -1 if it has none
+     */
+    public static CallableIndex of(CompilationUnit cu, ToIntFunction<MethodDeclaration> methodIndex) {
+        Collector collector = new Collector(cu.getPackageDeclaration().map(p -> p.getNameAsString()).orElse(null));
+        collector.visit(cu, -1, null, null);
+
+        List<Entry> entries = collector.entries;
+        entries.sort(Comparator.comparing((Entry entry) -> entry.begin));
+        Map<Entry, Integer> positions = new IdentityHashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            positions.put(entries.get(i), i);
+        }
+
+        CallableIndex index = new CallableIndex();
+        int size = entries.size();
+        index.classNames = collector.classNames.stream()
+                .map(names -> names.toArray(new String[0]))
+                .toArray(String[][]::new);
+        index.kinds = new Kind[size];
+        index.owners = new int[size];
+        index.beginLines = new int[size];
+        index.endLines = new int[size];
+        index.parents = new int[size];
+        index.methods = new int[size];
+        for (int i = 0; i < size; i++) {
+            Entry entry = entries.get(i);
+            index.kinds[i] = entry.kind;
+            index.owners[i] = entry.owner;
+            index.beginLines[i] = entry.begin.line;
+            index.endLines[i] = entry.endLine;
+            index.parents[i] = entry.parent == null ? -1 : positions.get(entry.parent);
+            index.methods[i] = entry.method == null ? -1 : methodIndex.applyAsInt(entry.method);
+        }
+        return index;
+    }
+
+    private static class Entry {
+        Kind kind;
+        int owner;
+        Position begin;
+        int endLine;
+        Entry parent;
+        MethodDeclaration method;
+    }
+
+    /**
+     * Walks the AST, naming classes the way javac does and recording the callables in each
+     */
+    private static class Collector {
+        private final String packageName;
+        private final List<Entry> entries = new ArrayList<>();
+        private final List<List<String>> classNames = new ArrayList<>();
+        /** Next number per enclosing class binary name and local class name ("" for anonymous) */
+        private final Map<String, Integer> localClassCounters = new HashMap<>();
+
+        Collector(String packageName) {
+            this.packageName = packageName;
+        }
+
+        void visit(Node node, int owner, Entry parent, MethodDeclaration method) {
+            if (node instanceof TypeDeclaration) {
+                owner = addClass((TypeDeclaration<?>) node, owner);
+            } else if (node instanceof ObjectCreationExpr && ((ObjectCreationExpr) node).getAnonymousClassBody().isPresent()
+                    || node instanceof EnumConstantDeclaration && !((EnumConstantDeclaration) node).getClassBody().isEmpty()) {
+                // The arguments belong to the enclosing class, the body to the anonymous one
+                int anonymous = addAnonymousClass(owner);
+                for (Node child : node.getChildNodes()) {
+                    visit(child, child instanceof BodyDeclaration ? anonymous : owner, parent, method);
+                }
+                return;
+            }
+
+            Kind kind = kindOf(node);
+            if (kind != null && owner >= 0 && node.getRange().isPresent()) {
+                if (node instanceof MethodDeclaration) {
+                    method = (MethodDeclaration) node;
+                }
+                Entry entry = new Entry();
+                entry.kind = kind;
+                entry.owner = owner;
+                entry.begin = node.getRange().get().begin;
+                entry.endLine = node.getRange().get().end.line;
+                entry.parent = parent;
+                entry.method = method;
+                entries.add(entry);
+                parent = entry;
+            }
+            for (Node child : node.getChildNodes()) {
+                visit(child, owner, parent, method);
+            }
+        }
+
+        private static Kind kindOf(Node node) {
+            if (node instanceof MethodDeclaration) {
+                return Kind.METHOD;
+            }
+            if (node instanceof ConstructorDeclaration || node instanceof CompactConstructorDeclaration) {
+                return Kind.CONSTRUCTOR;
+            }
+            if (node instanceof InitializerDeclaration) {
+                return Kind.INITIALIZER;
+            }
+            if (node instanceof LambdaExpr) {
+                return Kind.LAMBDA;
+            }
+            return null;
+        }
+
+        private int addClass(TypeDeclaration<?> type, int enclosing) {
+            String simpleName = type.getNameAsString();
+            Node parent = type.getParentNode().orElse(null);
+            boolean local = parent instanceof LocalClassDeclarationStmt || parent instanceof LocalRecordDeclarationStmt;
+
+            List<String> names = new ArrayList<>();
+            names.add(packageName == null ? simpleName : packageName + "." + simpleName);
+            if (!local) {
+                type.getFullyQualifiedName().ifPresent(names::add);
+            }
+            if (enclosing < 0) {
+                names.add(names.get(0));
+            } else {
+                String outer = binaryName(enclosing);
+                names.add(local ? outer + "$" + nextNumber(outer, simpleName) + simpleName : outer + "$" + simpleName);
+            }
+            return addClass(names);
+        }
+
+        private int addAnonymousClass(int enclosing) {
+            String outer = binaryName(enclosing);
+            return addClass(new ArrayList<>(List.of(outer + "$" + nextNumber(outer, ""))));
+        }
+
+        private int addClass(List<String> names) {
+            List<String> distinct = new ArrayList<>(new LinkedHashSet<>(names));
+            // The binary name stays last
+            String binaryName = names.get(names.size() - 1);
+            distinct.remove(binaryName);
+            distinct.add(binaryName);
+            classNames.add(distinct);
+            return classNames.size() - 1;
+        }
+
+        private String binaryName(int type) {
+            List<String> names = classNames.get(type);
+            return names.get(names.size() - 1);
+        }
+
+        private int nextNumber(String outer, String localName) {
+            return localClassCounters.merge(outer + "$" + localName, 1, Integer::sum);
+        }
+    }
+}
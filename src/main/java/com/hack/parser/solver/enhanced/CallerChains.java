@@ -0,0 +1,57 @@
+package com.hack.parser.solver.enhanced;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of one caller chain query: the paths from the entry points to the target method and the
+ * details of every method on them. It holds no reference to the index it was computed from, so it
+ * stays valid after the index is replaced.
+ */
+public final class CallerChains {
+
+    private final String target;
+    /** ROOT, with every entry point that reaches the target below it */
+    final MethodCallFinder.CallTreeNode rootNode;
+    private final List<MethodCallFinder.MethodDetails> methods;
+    /** Ids of the target and every method it can be reached from, whether in the tree or not */
+    final BitSet reaching;
+
+    CallerChains(String target, MethodCallFinder.CallTreeNode rootNode, List<MethodCallFinder.MethodDetails> methods,
+                 BitSet reaching) {
+        this.target = target;
+        this.rootNode = rootNode;
+        this.methods = Collections.unmodifiableList(methods);
+        this.reaching = reaching;
+    }
+
+    /**
+     * Signature of the method the chains lead to
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * Call tree from the first entry point that reaches the target, the dag_tree of the JSON output.
+     * Repeated subtrees are the same node objects.
+     */
+    public MethodCallFinder.CallTreeNode getTree() {
+        return MethodCallFinder.firstEntry(rootNode);
+    }
+
+    /**
+     * The tree as a node table and edge list, computed on each call
+     */
+    public MethodCallFinder.Dag getDag() {
+        return MethodCallFinder.toDag(rootNode);
+    }
+
+    /**
+     * Details of every unique method in the tree
+     */
+    public List<MethodCallFinder.MethodDetails> getMethods() {
+        return methods;
+    }
+}
@@ -0,0 +1,183 @@
+package com.hack.parser.solver.enhanced;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Caller chains of a method, found one at a time: each is the list of method ids from the target
+ * up through its callers to a method nobody calls, in the order RecursiveCallerFinder prints them.
+ * A caller already on the chain is skipped, so cycles end a branch instead of repeating it.
+ * <p>
+ * Only the current path is held, so the memory used depends on the length of the chains rather
+ * than on their number. A split hands the callers not tried yet at the first branching node of
+ * the path over to a new spliterator, which continues from a copy of the path up to that node.
+ */
+final class CallerPathSpliterator implements Spliterator<List<Integer>> {
+
+    private final CallGraph callGraph;
+    /** Per method on the path: its id and the range of its callers still to try */
+    private int[] pathMethods;
+    private int[] nextCaller;
+    private int[] callersEnd;
+    private int depth;
+    /** Methods on the path */
+    private final BitSet onPath;
+    /** A target without callers is a chain of its own, or -1 */
+    private int targetOnly = -1;
+
+    CallerPathSpliterator(CallGraph callGraph, int target) {
+        this.callGraph = callGraph;
+        this.pathMethods = new int[16];
+        this.nextCaller = new int[16];
+        this.callersEnd = new int[16];
+        this.onPath = new BitSet();
+        if (target < 0 || target >= callGraph.size()) {
+            return;
+        }
+        if (isEntry(target)) {
+            targetOnly = target;
+        } else {
+            push(target);
+        }
+    }
+
+    private CallerPathSpliterator(CallGraph callGraph, int[] pathMethods, int[] nextCaller, int[] callersEnd,
+                                  int depth) {
+        this.callGraph = callGraph;
+        this.pathMethods = pathMethods;
+        this.nextCaller = nextCaller;
+        this.callersEnd = callersEnd;
+        this.depth = depth;
+        this.onPath = new BitSet();
+        for (int i = 0; i < depth; i++) {
+            onPath.set(pathMethods[i]);
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super List<Integer>> action) {
+        if (targetOnly >= 0) {
+            action.accept(new MethodIds(new int[]{targetOnly}));
+            targetOnly = -1;
+            return true;
+        }
+        while (depth > 0) {
+            int top = depth - 1;
+            // The next direct caller that is not on the path yet
+            while (nextCaller[top] < callersEnd[top] && onPath.get(callGraph.caller(nextCaller[top]))) {
+                nextCaller[top]++;
+            }
+            if (nextCaller[top] == callersEnd[top]) {
+                // Every chain through this method is done: backtrack
+                onPath.clear(pathMethods[--depth]);
+                continue;
+            }
+            int caller = callGraph.caller(nextCaller[top]++);
+            if (isEntry(caller)) {
+                int[] chain = Arrays.copyOf(pathMethods, depth + 1);
+                chain[depth] = caller;
+                action.accept(new MethodIds(chain));
+                return true;
+            }
+            push(caller);
+        }
+        return false;
+    }
+
+    /**
+     * Split at the node closest to the target that has at least two callers left to try. The
+     * returned spliterator gets the chains before the second half of those callers, this one
+     * keeps the rest, so encounter order is kept.
+     */
+    @Override
+    public Spliterator<List<Integer>> trySplit() {
+        while (depth > 0) {
+            for (int frame = 0; frame < depth; frame++) {
+                int remaining = callersEnd[frame] - nextCaller[frame];
+                if (remaining >= 2) {
+                    return splitAt(frame, nextCaller[frame] + remaining / 2);
+                }
+            }
+            // Before anything branches, go down the only caller left, as tryAdvance would
+            int top = depth - 1;
+            if (callersEnd[top] - nextCaller[top] != 1) {
+                return null;
+            }
+            int caller = callGraph.caller(nextCaller[top]);
+            if (onPath.get(caller) || isEntry(caller)) {
+                return null;
+            }
+            nextCaller[top]++;
+            push(caller);
+        }
+        return null;
+    }
+
+    private Spliterator<List<Integer>> splitAt(int frame, int middle) {
+        // The prefix: the current path, ending at the middle, and with nothing left below the frame
+        int[] prefixEnd = Arrays.copyOf(callersEnd, callersEnd.length);
+        int[] prefixNext = Arrays.copyOf(nextCaller, nextCaller.length);
+        prefixEnd[frame] = middle;
+        for (int i = 0; i < frame; i++) {
+            prefixNext[i] = prefixEnd[i];
+        }
+        CallerPathSpliterator prefix = new CallerPathSpliterator(callGraph,
+                Arrays.copyOf(pathMethods, pathMethods.length), prefixNext, prefixEnd, depth);
+
+        // This one goes on with the rest of the frame's callers, then the frames below it
+        for (int i = frame + 1; i < depth; i++) {
+            onPath.clear(pathMethods[i]);
+        }
+        depth = frame + 1;
+        nextCaller[frame] = middle;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return depth == 0 && targetOnly < 0 ? 0 : Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL | IMMUTABLE;
+    }
+
+    private boolean isEntry(int method) {
+        return callGraph.callersFrom(method) == callGraph.callersTo(method);
+    }
+
+    private void push(int method) {
+        if (depth == pathMethods.length) {
+            pathMethods = Arrays.copyOf(pathMethods, depth * 2);
+            nextCaller = Arrays.copyOf(nextCaller, depth * 2);
+            callersEnd = Arrays.copyOf(callersEnd, depth * 2);
+        }
+        pathMethods[depth] = method;
+        nextCaller[depth] = callGraph.callersFrom(method);
+        callersEnd[depth] = callGraph.callersTo(method);
+        depth++;
+        onPath.set(method);
+    }
+
+    /**
+     * Unmodifiable list view of a chain
+     */
+    private static final class MethodIds extends AbstractList<Integer> implements RandomAccess {
+        private final int[] ids;
+
+        MethodIds(int[] ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public Integer get(int index) {
+            return ids[index];
+        }
+
+        @Override
+        public int size() {
+            return ids.length;
+        }
+    }
+}
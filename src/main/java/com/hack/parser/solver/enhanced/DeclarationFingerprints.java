@@ -0,0 +1,318 @@
+package com.hack.parser.solver.enhanced;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Current declaration fingerprints of every source type and package, used to decide whether a
+ * summary that was resolved against older declarations is still valid. Types and packages outside
+ * the package prefix have no summary, so their fingerprint is the content hash of the source file(s)
+ * found at the conventional location under the source root.
+ * <p>
+ * The fingerprints can be kept up to date with {@link #update} and {@link #sourceChanged}, which only
+ * touch the entries of the files that changed, and {@link #dependentsOf} finds the summaries that
+ * depend on what changed without going over the others. Content hashes of files outside the prefix
+ * are kept between lookups and only computed again when the file's size or modification time differ.
+ * An instance is not thread-safe.
+ */
+class DeclarationFingerprints {
+    private static final String TYPE_KEY = "type:";
+    private static final String PACKAGE_KEY = "package:";
+
+    private final Path sourceRoot;
+    /** Summary each fingerprint below was taken from, by path */
+    private final Map<String, FileSummary> summaries = new HashMap<>();
+    /** Declared type -> fingerprint and path of the file declaring it */
+    private final Map<String, String> byType = new HashMap<>();
+    private final Map<String, String> typeFiles = new HashMap<>();
+    /** Package -> fingerprint over the files declaring it, and their fingerprints by path */
+    private final Map<String, String> byPackage = new HashMap<>();
+    private final Map<String, Map<String, String>> packageFiles = new HashMap<>();
+    /** Dependency key, as in {@link #forDependencies}, -> paths of the summaries depending on it */
+    private final NavigableMap<String, Set<String>> dependents = new TreeMap<>();
+    /** Fingerprints of types and packages outside the prefix found since the last change */
+    private final Map<String, Optional<String>> prunedFingerprints = new HashMap<>();
+    private final Map<Path, StampedHash> prunedContentHashes = new HashMap<>();
+
+    /**
+     * @param sourceRoot root used to locate sources that were not summarized, or null
+     */
+    DeclarationFingerprints(Collection<FileSummary> summaries, Path sourceRoot) {
+        this.sourceRoot = sourceRoot;
+        Set<String> packages = new HashSet<>();
+        for (FileSummary summary : summaries) {
+            add(summary);
+            if (summary.packageName != null) {
+                packages.add(summary.packageName);
+            }
+        }
+        packages.forEach(this::updatePackage);
+    }
+
+    Map<String, String> forDependencies(FileSummary summary) {
+        Map<String, String> result = new TreeMap<>();
+        for (String type : summary.typeDependencies) {
+            String fingerprint = byType.containsKey(type) ? byType.get(type) : prunedTypeFingerprint(type);
+            if (fingerprint != null) {
+                result.put(TYPE_KEY + type, fingerprint);
+            }
+        }
+        for (String pkg : summary.packageDependencies) {
+            String fingerprint = byPackage.containsKey(pkg) ? byPackage.get(pkg) : prunedPackageFingerprint(pkg);
+            if (fingerprint != null) {
+                result.put(PACKAGE_KEY + pkg, fingerprint);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Replace the summaries of changed files and drop those of removed ones
+     *
+     * @return dependency keys whose fingerprint may have changed
+     */
+    Set<String> update(Map<String, FileSummary> changed, Collection<String> removed) {
+        Set<String> changedKeys = new HashSet<>();
+        Set<String> packages = new HashSet<>();
+        Set<String> paths = new HashSet<>(removed);
+        paths.addAll(changed.keySet());
+        for (String path : paths) {
+            FileSummary old = summaries.get(path);
+            FileSummary summary = changed.get(path);
+            if (old != null && summary != null && old.declarationFingerprint().equals(summary.declarationFingerprint())
+                    && Objects.equals(old.packageName, summary.packageName)) {
+                // Same declarations, only the dependency index has to follow the new summary
+                removeDependents(old);
+                summaries.put(path, summary);
+                addDependents(summary);
+                continue;
+            }
+            if (old != null) {
+                remove(path, old);
+                keysOf(old, changedKeys, packages);
+            }
+            if (summary != null) {
+                add(summary);
+                keysOf(summary, changedKeys, packages);
+            }
+        }
+        packages.forEach(this::updatePackage);
+        if (!changedKeys.isEmpty()) {
+            prunedFingerprints.clear();
+        }
+        return changedKeys;
+    }
+
+    /**
+     * Note that a file under the source root was added, modified or deleted, for files outside the
+     * prefix whose content stands in for their declarations
+     *
+     * @return dependency keys whose fingerprint may have changed
+     */
+    Set<String> sourceChanged(Path file) {
+        prunedContentHashes.remove(file);
+        prunedFingerprints.clear();
+        if (sourceRoot == null || !file.startsWith(sourceRoot) || !file.toString().endsWith(".java")) {
+            return Collections.emptySet();
+        }
+        String relative = sourceRoot.relativize(file).toString().replace(file.getFileSystem().getSeparator(), ".");
+        String type = relative.substring(0, relative.length() - ".java".length());
+        int lastDot = type.lastIndexOf('.');
+        Set<String> keys = new HashSet<>();
+        keys.add(TYPE_KEY + type);
+        keys.add(PACKAGE_KEY + (lastDot < 0 ? "" : type.substring(0, lastDot)));
+        return keys;
+    }
+
+    /**
+     * Paths of the summaries depending on any of the keys, or on a type nested in one of the types
+     */
+    Set<String> dependentsOf(Collection<String> keys) {
+        Set<String> result = new HashSet<>();
+        for (String key : keys) {
+            Set<String> paths = dependents.get(key);
+            if (paths != null) {
+                result.addAll(paths);
+            }
+            if (key.startsWith(TYPE_KEY)) {
+                // Types outside the prefix are looked for in the file of their outermost type
+                for (Set<String> nested : dependents.subMap(key + ".", true, key + ".\uffff", false).values()) {
+                    result.addAll(nested);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void add(FileSummary summary) {
+        summaries.put(summary.path, summary);
+        String fingerprint = summary.declarationFingerprint();
+        for (String type : summary.declaredTypes) {
+            byType.put(type, fingerprint);
+            typeFiles.put(type, summary.path);
+        }
+        if (summary.packageName != null) {
+            packageFiles.computeIfAbsent(summary.packageName, k -> new HashMap<>()).put(summary.path, fingerprint);
+        }
+        addDependents(summary);
+    }
+
+    private void remove(String path, FileSummary old) {
+        summaries.remove(path);
+        for (String type : old.declaredTypes) {
+            // Another file may have declared the same name since
+            if (path.equals(typeFiles.get(type))) {
+                byType.remove(type);
+                typeFiles.remove(type);
+            }
+        }
+        if (old.packageName != null) {
+            Map<String, String> files = packageFiles.get(old.packageName);
+            if (files != null) {
+                files.remove(path);
+            }
+        }
+        removeDependents(old);
+    }
+
+    private void addDependents(FileSummary summary) {
+        for (String type : summary.typeDependencies) {
+            dependents.computeIfAbsent(TYPE_KEY + type, k -> new HashSet<>()).add(summary.path);
+        }
+        for (String pkg : summary.packageDependencies) {
+            dependents.computeIfAbsent(PACKAGE_KEY + pkg, k -> new HashSet<>()).add(summary.path);
+        }
+    }
+
+    private void removeDependents(FileSummary summary) {
+        for (String type : summary.typeDependencies) {
+            removeDependent(TYPE_KEY + type, summary.path);
+        }
+        for (String pkg : summary.packageDependencies) {
+            removeDependent(PACKAGE_KEY + pkg, summary.path);
+        }
+    }
+
+    private void removeDependent(String key, String path) {
+        Set<String> paths = dependents.get(key);
+        if (paths != null && paths.remove(path) && paths.isEmpty()) {
+            dependents.remove(key);
+        }
+    }
+
+    private static void keysOf(FileSummary summary, Set<String> keys, Set<String> packages) {
+        for (String type : summary.declaredTypes) {
+            keys.add(TYPE_KEY + type);
+        }
+        if (summary.packageName != null) {
+            keys.add(PACKAGE_KEY + summary.packageName);
+            packages.add(summary.packageName);
+        }
+    }
+
+    private void updatePackage(String pkg) {
+        Map<String, String> files = packageFiles.get(pkg);
+        if (files == null || files.isEmpty()) {
+            packageFiles.remove(pkg);
+            byPackage.remove(pkg);
+            return;
+        }
+        List<String> fileFingerprints = new ArrayList<>(files.values());
+        Collections.sort(fileFingerprints);
+        byPackage.put(pkg, ContentHash.of(String.join("\n", fileFingerprints)));
+    }
+
+    /**
+     * a.b.C.D is looked for in a/b/C/D.java, then a/b/C.java
+     */
+    private String prunedTypeFingerprint(String type) {
+        if (sourceRoot == null) {
+            return null;
+        }
+        return prunedFingerprints.computeIfAbsent(TYPE_KEY + type, key -> {
+            String[] parts = type.split("\\.");
+            for (int length = parts.length; length > 0; length--) {
+                Path candidate = sourceRoot.resolve(String.join("/", Arrays.copyOf(parts, length)) + ".java");
+                String hash = prunedContentHash(candidate);
+                if (hash != null) {
+                    return Optional.of("content:" + hash);
+                }
+            }
+            return Optional.empty();
+        }).orElse(null);
+    }
+
+    private String prunedPackageFingerprint(String pkg) {
+        if (sourceRoot == null) {
+            return null;
+        }
+        return prunedFingerprints.computeIfAbsent(PACKAGE_KEY + pkg, key -> {
+            Path directory = sourceRoot.resolve(pkg.replace('.', '/'));
+            if (!Files.isDirectory(directory)) {
+                return Optional.empty();
+            }
+            List<String> fileHashes = new ArrayList<>();
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : files.filter(f -> f.toString().endsWith(".java")).sorted().collect(Collectors.toList())) {
+                    String hash = prunedContentHash(file);
+                    if (hash != null) {
+                        fileHashes.add(file.getFileName() + ":" + hash);
+                    }
+                }
+            } catch (IOException e) {
+                return Optional.empty();
+            }
+            return fileHashes.isEmpty() ? Optional.empty()
+                    : Optional.of("content:" + ContentHash.of(String.join("\n", fileHashes)));
+        }).orElse(null);
+    }
+
+    private String prunedContentHash(Path file) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            prunedContentHashes.remove(file);
+            return null;
+        }
+        if (!attributes.isRegularFile()) {
+            return null;
+        }
+        StampedHash cached = prunedContentHashes.get(file);
+        if (cached != null && cached.matches(attributes)) {
+            return cached.hash;
+        }
+        try {
+            String hash = ContentHash.of(SourceFileLoader.read(file));
+            prunedContentHashes.put(file, new StampedHash(attributes, hash));
+            return hash;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Content hash of a file with the size and modification time it had when it was read
+     */
+    private static final class StampedHash {
+        final long size;
+        final FileTime lastModified;
+        final String hash;
+
+        StampedHash(BasicFileAttributes attributes, String hash) {
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime();
+            this.hash = hash;
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size() && lastModified.equals(attributes.lastModifiedTime());
+        }
+    }
+}
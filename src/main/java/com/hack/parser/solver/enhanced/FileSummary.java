@@ -0,0 +1,221 @@
+package com.hack.parser.solver.enhanced;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Compact, serializable summary of everything the finders need from one source file:
+ * declared types and method signatures, line ranges and source offsets, resolved call edges
+ * and implemented interface methods. Summaries are what the parse cache stores between runs,
+ * and what the index keeps in memory instead of the CompilationUnit.
+ */
+public class FileSummary {
+
+    /** Bump when the layout changes so old cache entries are ignored */
+    static final int FORMAT_VERSION = 4;
+
+    int version = FORMAT_VERSION;
+    String path;
+    String contentHash;
+    String packageName;
+    List<String> declaredTypes = new ArrayList<>();
+    /** "<type> extends <supertype>" or "<type> implements <supertype>" per supertype of a declared type */
+    List<String> supertypes = new ArrayList<>();
+    /** "<type>.<field> <field type>" per field of a declared type */
+    List<String> fields = new ArrayList<>();
+    List<MethodSummary> methods = new ArrayList<>();
+    List<InterfaceLink> interfaceLinks = new ArrayList<>();
+    /** Line ranges of the methods, constructors, initializers and lambdas in the file */
+    CallableIndex callables;
+
+    /** True when call edges and interface links were resolved for this file */
+    boolean callsResolved;
+
+    /** Types and packages whose declarations were used to resolve this file */
+    Set<String> typeDependencies = new TreeSet<>();
+    Set<String> packageDependencies = new TreeSet<>();
+
+    /** Fingerprints of the dependencies above at the time the summary was written */
+    Map<String, String> dependencyFingerprints = new TreeMap<>();
+
+    /**
+     * True when call edges came from a {@link CallResolutionCache} rather than the symbol solver,
+     * in which case dependencyFingerprints are the ones they were resolved against
+     */
+    transient boolean reusedResolutions;
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public String getPackageName() {
+        return packageName;
+    }
+
+    public List<MethodSummary> getMethods() {
+        return methods;
+    }
+
+    public List<InterfaceLink> getInterfaceLinks() {
+        return interfaceLinks;
+    }
+
+    public CallableIndex getCallables() {
+        return callables;
+    }
+
+    /**
+     * Re-read the file this summary was built from. Offsets in the summary only apply to that
+     * exact content, so null is returned if the file is gone or has changed since.
+     */
+    public String readSource() {
+        try {
+            String content = SourceFileLoader.read(Paths.get(path));
+            return contentHash == null || contentHash.equals(ContentHash.of(content)) ? content : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public boolean isInPackage(String packagePrefix) {
+        return packageName != null && packageName.startsWith(packagePrefix);
+    }
+
+    /**
+     * Hash over the declarations other files can depend on: types with their supertypes and fields,
+     * and methods with their parameter types (part of the signature) and return types. Resolving a
+     * call chain such as {@code a.get().run()} in another file depends on all of them. Method bodies
+     * and line numbers are deliberately left out so that editing a body does not invalidate dependent files.
+     */
+    String declarationFingerprint() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(packageName).append('\n');
+        for (String type : declaredTypes) {
+            sb.append("T ").append(type).append('\n');
+        }
+        for (String supertype : supertypes) {
+            sb.append("S ").append(supertype).append('\n');
+        }
+        for (String field : fields) {
+            sb.append("F ").append(field).append('\n');
+        }
+        for (MethodSummary method : methods) {
+            sb.append("M ").append(method.className).append(' ').append(method.signature)
+                    .append(' ').append(method.returnType).append('\n');
+        }
+        for (InterfaceLink link : interfaceLinks) {
+            sb.append("I ").append(link.interfaceSignature).append(' ').append(link.implementationSignature).append('\n');
+        }
+        return ContentHash.of(sb.toString());
+    }
+
+    /**
+     * One MethodDeclaration in the file
+     */
+    public static class MethodSummary {
+        String signature;
+        /** Package plus simple name of the directly enclosing class or interface, null otherwise */
+        String className;
+        /** Qualified return type, or as written when it cannot be resolved */
+        String returnType;
+        /** Whether the signature came from the symbol solver rather than the declaration text */
+        boolean resolved;
+        int beginLine;
+        int endLine;
+        /** Character offsets of the declaration in the file content, end exclusive */
+        int beginOffset = -1;
+        int endOffset = -1;
+        /** Character offsets of the body, -1 for abstract and interface methods */
+        int bodyBeginOffset = -1;
+        int bodyEndOffset = -1;
+        /**
+         * Begin/end offset pairs of the comments shown with the method: its own comment first
+         * (-1, -1 if it has none), then orphan comments of the enclosing type just above it
+         */
+        int[] commentOffsets;
+        /** Resolved callee signatures in source order, null when calls were not resolved */
+        List<String> calls;
+
+        public String getSignature() {
+            return signature;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public String getReturnType() {
+            return returnType;
+        }
+
+        public boolean isResolved() {
+            return resolved;
+        }
+
+        public int getBeginLine() {
+            return beginLine;
+        }
+
+        public int getEndLine() {
+            return endLine;
+        }
+
+        public int getBeginOffset() {
+            return beginOffset;
+        }
+
+        public int getEndOffset() {
+            return endOffset;
+        }
+
+        public boolean hasBody() {
+            return bodyBeginOffset >= 0;
+        }
+
+        public int getBodyBeginOffset() {
+            return bodyBeginOffset;
+        }
+
+        public int getBodyEndOffset() {
+            return bodyEndOffset;
+        }
+
+        public int[] getCommentOffsets() {
+            return commentOffsets == null ? new int[0] : commentOffsets;
+        }
+
+        public List<String> getCalls() {
+            return calls == null ? Collections.emptyList() : calls;
+        }
+
+        public boolean containsLine(int lineNumber) {
+            return beginLine > 0 && beginLine <= lineNumber && endLine >= lineNumber;
+        }
+    }
+
+    /**
+     * An interface method implemented by a method declared in this file
+     */
+    public static class InterfaceLink {
+        String interfaceSignature;
+        String implementationSignature;
+
+        InterfaceLink(String interfaceSignature, String implementationSignature) {
+            this.interfaceSignature = interfaceSignature;
+            this.implementationSignature = implementationSignature;
+        }
+
+        public String getInterfaceSignature() {
+            return interfaceSignature;
+        }
+
+        public String getImplementationSignature() {
+            return implementationSignature;
+        }
+    }
+}
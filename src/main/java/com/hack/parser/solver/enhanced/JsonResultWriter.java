@@ -0,0 +1,153 @@
+package com.hack.parser.solver.enhanced;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Writes the result of a {@link MethodCallFinder} query as JSON while it is being produced: the
+ * tree is written straight from its (shared) nodes and each method as soon as its details are
+ * extracted, so the document never exists in memory as a whole. Unless compact, the text is the
+ * same that pretty-printing Gson produces for the equivalent object.
+ */
+class JsonResultWriter {
+
+    private final JsonWriter json;
+    private final Writer out;
+
+    /**
+     * @param compact write everything on one line instead of pretty-printing
+     */
+    JsonResultWriter(Writer out, boolean compact) throws IOException {
+        this.out = out;
+        this.json = new JsonWriter(out);
+        // Gson escapes HTML characters by default, and so did the output built with it
+        json.setHtmlSafe(true);
+        if (!compact) {
+            json.setIndent("  ");
+        }
+        json.beginObject();
+    }
+
+    /**
+     * @param shareRepeated write a node that occurs again as a reference without children
+     */
+    void writeTree(MethodCallFinder.CallTreeNode root, boolean shareRepeated) throws IOException {
+        json.name("dag_tree");
+        writeNode(root, shareRepeated ? Collections.newSetFromMap(new IdentityHashMap<>()) : null);
+    }
+
+    void writeDag(MethodCallFinder.Dag dag) throws IOException {
+        json.name("dag").beginObject();
+        if (dag.root != null) {
+            json.name("root").value(dag.root);
+        }
+        json.name("files").beginArray();
+        for (String file : dag.files) {
+            json.value(file);
+        }
+        json.endArray();
+        json.name("nodes").beginArray();
+        for (MethodCallFinder.DagNode node : dag.nodes) {
+            json.beginObject();
+            json.name("id").value(node.id);
+            writeString("signature", node.signature);
+            json.name("file").value(node.file);
+            json.name("line").value(node.line);
+            json.endObject();
+        }
+        json.endArray();
+        json.name("edges").beginArray();
+        for (int[] edge : dag.edges) {
+            json.beginArray().value(edge[0]).value(edge[1]).endArray();
+        }
+        json.endArray();
+        json.endObject();
+    }
+
+    void beginMethods() throws IOException {
+        json.name("methods").beginArray();
+    }
+
+    void writeMethod(MethodCallFinder.MethodDetails details) throws IOException {
+        json.beginObject();
+        writeString("name", details.name);
+        writeString("signature", details.signature);
+        writeString("body", details.body);
+        writeString("comments", details.comments);
+        json.endObject();
+    }
+
+    void endMethods() throws IOException {
+        json.endArray();
+    }
+
+    /**
+     * Add a property to the current object, left out if the value is null
+     */
+    void writeProperty(String name, String value) throws IOException {
+        writeString(name, value);
+    }
+
+    void writeProperty(String name, long value) throws IOException {
+        json.name(name).value(value);
+    }
+
+    /**
+     * Close the document and flush. The underlying writer stays open.
+     */
+    void finish() throws IOException {
+        json.endObject();
+        json.flush();
+        out.flush();
+    }
+
+    /**
+     * Write a node and everything below it, keeping the open nodes on a stack of its own rather
+     * than the thread stack, so trees of any depth can be written
+     */
+    private void writeNode(MethodCallFinder.CallTreeNode root, Set<MethodCallFinder.CallTreeNode> written)
+            throws IOException {
+        Deque<Iterator<MethodCallFinder.CallTreeNode>> open = new ArrayDeque<>();
+        beginNode(root, written, open);
+        while (!open.isEmpty()) {
+            Iterator<MethodCallFinder.CallTreeNode> children = open.peek();
+            if (children.hasNext()) {
+                beginNode(children.next(), written, open);
+            } else {
+                open.pop();
+                json.endArray();
+                json.endObject();
+            }
+        }
+    }
+
+    /**
+     * Write the fields of a node; unless it is a reference, leave its children open on the stack
+     */
+    private void beginNode(MethodCallFinder.CallTreeNode node, Set<MethodCallFinder.CallTreeNode> written,
+                           Deque<Iterator<MethodCallFinder.CallTreeNode>> open) throws IOException {
+        boolean reference = written != null && !written.add(node);
+        json.beginObject();
+        writeString("method", node.method);
+        writeString("file", node.file);
+        json.name("line").value(node.line);
+        if (reference) {
+            // The children were written at the first occurrence
+            json.name("shared").value(true);
+            json.endObject();
+        } else {
+            json.name("children").beginArray();
+            open.push(node.children.iterator());
+        }
+    }
+
+    /** Null values are left out, like Gson does */
+    private void writeString(String name, String value) throws IOException {
+        if (value != null) {
+            json.name(name).value(value);
+        }
+    }
+}
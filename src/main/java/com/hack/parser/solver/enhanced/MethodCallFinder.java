@@ -1,63 +1,176 @@
 package com.hack.parser.solver.enhanced;
 
-import com.github.javaparser.JavaParser;
-import com.github.javaparser.ParseResult;
-import com.github.javaparser.ParserConfiguration;
-import com.github.javaparser.ast.CompilationUnit;
-import com.github.javaparser.ast.PackageDeclaration;
-import com.github.javaparser.ast.body.*;
+import com.github.javaparser.ast.comments.BlockComment;
 import com.github.javaparser.ast.comments.Comment;
 import com.github.javaparser.ast.comments.JavadocComment;
-import com.github.javaparser.ast.expr.MethodCallExpr;
-import com.github.javaparser.resolution.declarations.ResolvedMethodDeclaration;
-import com.github.javaparser.resolution.declarations.ResolvedReferenceTypeDeclaration;
-import com.github.javaparser.symbolsolver.JavaSymbolSolver;
-import com.github.javaparser.symbolsolver.resolution.typesolvers.CombinedTypeSolver;
-import com.github.javaparser.symbolsolver.resolution.typesolvers.JavaParserTypeSolver;
-import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeSolver;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.github.javaparser.ast.comments.LineComment;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Enhanced method caller finder that outputs results in JSON tree format with method bodies and comments
+ * <p>
+ * Embedded as a library, {@link #buildIndex()} parses the source root once and
+ * {@link #queryCallerChains} answers queries against that index as {@link CallerChains} objects.
+ * Queries only read the index and the finder's settings, so one finder can run them from many
+ * threads at once; configure it before sharing it.
  */
 
 @Slf4j
 public class MethodCallFinder {
 
-    private final JavaParser parser;
+    /** System property that turns on watch mode in {@link #main} */
+    public static final String WATCH_PROPERTY = "parser.watch";
+
+    /**
+     * System property naming a file of stack traces (a log or NDJSON, "-" for stdin) to triage in
+     * one run, see {@link StackTraceTriage}; the class and line arguments are ignored
+     */
+    public static final String BATCH_PROPERTY = "parser.batch";
+
+    /** System property selecting the {@link Layout} of dag_tree, e.g. -Dparser.layout=shared */
+    public static final String LAYOUT_PROPERTY = "parser.layout";
+
+    /** System property that writes the JSON on one line instead of pretty-printed */
+    public static final String COMPACT_PROPERTY = "parser.compact";
+
+    /** System property naming a file to write the JSON to instead of stdout */
+    public static final String OUTPUT_PROPERTY = "parser.output";
+
+    /** System property that gzips the output file */
+    public static final String GZIP_PROPERTY = "parser.gzip";
+
+    /**
+     * How dag_tree is written
+     */
+    public enum Layout {
+        /** Every path written out in full */
+        TREE,
+        /** A subtree that occurs more than once is written the first time only, later as a reference */
+        SHARED,
+        /** A "dag" object with a node table and an edge list instead of dag_tree, one node per method */
+        DAG;
+
+        /**
+         * Layout configured through -Dparser.layout, TREE when it is not set
+         */
+        public static Layout fromSystemProperty() {
+            String layout = System.getProperty(LAYOUT_PROPERTY);
+            if (layout == null || layout.isBlank()) {
+                return TREE;
+            }
+            try {
+                return valueOf(layout.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                log.info("Unknown layout '" + layout + "', using tree");
+                return TREE;
+            }
+        }
+    }
+
     private final String packagePrefix;
     private final Path sourceRoot;
-    private Map<String, String> methodToFilePath = new HashMap<>();
-    private Map<String, Integer> methodToLineNumber = new HashMap<>();
-    private Map<String, MethodDeclaration> methodSignatureToDeclaration = new HashMap<>();
-    private Map<String, String> filePathToContent = new HashMap<>();
+    private final int parallelism;
+    private final ParseSummaryCache summaryCache;
+    private final CallResolutionCache callResolutionCache;
+    private Layout layout = Layout.fromSystemProperty();
+    private boolean compact = Boolean.getBoolean(COMPACT_PROPERTY);
+    private Path outputFile = outputFileFromSystemProperty();
+    private boolean gzip = Boolean.getBoolean(GZIP_PROPERTY);
+    private QueryResultCache resultCache;
 
     public MethodCallFinder(Path sourceRoot, String packagePrefix) {
+        this(sourceRoot, packagePrefix, ParallelSourceParser.defaultParallelism());
+    }
+
+    /**
+     * @param parallelism number of threads used to parse source files, 1 for sequential parsing
+     */
+    public MethodCallFinder(Path sourceRoot, String packagePrefix, int parallelism) {
+        this(sourceRoot, packagePrefix, parallelism, ParseSummaryCache.fromSystemProperty());
+    }
+
+    /**
+     * @param summaryCache on-disk parse cache shared between runs, or null to parse every file
+     */
+    public MethodCallFinder(Path sourceRoot, String packagePrefix, int parallelism, ParseSummaryCache summaryCache) {
         this.packagePrefix = packagePrefix;
         this.sourceRoot = sourceRoot;
-        this.parser = createParser(sourceRoot);
+        this.parallelism = parallelism;
+        this.summaryCache = summaryCache;
+        // Kept for the lifetime of the finder, so repeated queries do not resolve the same calls again
+        this.callResolutionCache = CallResolutionCache.create();
+    }
+
+    public CallResolutionCache getCallResolutionCache() {
+        return callResolutionCache;
+    }
+
+    public QueryResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Answer queries for targets asked for before from this cache, null to compute every result
+     */
+    public void setResultCache(QueryResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    public void setLayout(Layout layout) {
+        this.layout = layout;
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
+    public Path getOutputFile() {
+        return outputFile;
     }
 
-    private JavaParser createParser(Path sourceRoot) {
-        CombinedTypeSolver typeSolver = new CombinedTypeSolver(
-                new ReflectionTypeSolver(),
-                new JavaParserTypeSolver(sourceRoot.toFile())
-        );
-        JavaSymbolSolver symbolSolver = new JavaSymbolSolver(typeSolver);
-        ParserConfiguration config = new ParserConfiguration().setSymbolResolver(symbolSolver);
-        return new JavaParser(config);
+    /**
+     * @param outputFile file the JSON is written to, replacing its content, or null for stdout
+     */
+    public void setOutputFile(Path outputFile) {
+        this.outputFile = outputFile;
+    }
+
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    /**
+     * @param gzip gzip the output file; has no effect on stdout
+     */
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    private static Path outputFileFromSystemProperty() {
+        String file = System.getProperty(OUTPUT_PROPERTY);
+        return file == null || file.isBlank() ? null : Paths.get(file.trim());
     }
 
     /**
@@ -65,40 +178,35 @@ public class MethodCallFinder {
      */
     public void findCallerChains(Path sourceRoot, String fullyQualifiedClassName, int lineNumber) {
         try {
-            // Parse all Java files
-            Map<String, CompilationUnit> compilationUnits = parseAllJavaFiles(sourceRoot);
+            // Parse all Java files (or load their summaries from the cache),
+            // then build method metadata, interface mappings and the call graph
+            WorkspaceIndex workspaceIndex = buildIndex(sourceRoot);
 
+            findCallerChains(workspaceIndex, fullyQualifiedClassName, lineNumber);
+        } catch (Exception e) {
+            log.info("Error analyzing caller chains: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Find and output caller chains against an already built index, e.g. a snapshot from
+     * {@link WorkspaceWatcher}. The snapshot is read once, so an index update that lands
+     * while the query runs does not affect its result.
+     */
+    public void findCallerChains(WorkspaceIndex workspaceIndex, String fullyQualifiedClassName, int lineNumber) {
+        try {
             // Find target method by line number
-            MethodDeclaration targetMethod = findMethodByLine(fullyQualifiedClassName, lineNumber, compilationUnits);
-            if (targetMethod == null) {
-                log.info("No method found at line " + lineNumber + " in class " + fullyQualifiedClassName);
+            int target = findTarget(workspaceIndex, fullyQualifiedClassName, lineNumber);
+            if (target < 0) {
                 return;
             }
 
-            // Build method metadata maps
-            buildMethodMetadata(compilationUnits);
-
-            // Build interface implementation mapping
-            Map<String, Set<String>> interfaceToImplementations = buildInterfaceImplementationMap(compilationUnits);
-
-            // Build call graph (forward direction)
-            Map<String, Set<String>> callGraph = buildEnhancedCallGraph(compilationUnits, interfaceToImplementations);
-
-            // Get target method signature
-            String targetSignature = getMethodSignature(targetMethod);
-
             // Build tree starting from all entry points
-            CallTreeNode rootNode = buildCallTree(targetSignature, callGraph);
-
-            // Collect all unique methods from the tree
-            Set<String> allMethodSignatures = new HashSet<>();
-            collectMethodSignatures(rootNode, allMethodSignatures);
+            CallTreeNode rootNode = buildCallTree(workspaceIndex, target);
 
-            // Extract method details for each unique method
-            List<MethodDetails> methodDetails = extractMethodDetails(allMethodSignatures);
-
-            // Convert to JSON and output
-            outputJsonTree(rootNode, methodDetails);
+            // Write the tree, then the details of each unique method as they are extracted
+            outputJsonTree(workspaceIndex, rootNode);
 
         } catch (Exception e) {
             log.info("Error analyzing caller chains: " + e.getMessage());
@@ -106,40 +214,144 @@ public class MethodCallFinder {
         }
     }
 
-    private void collectMethodSignatures(CallTreeNode node, Set<String> signatures) {
-        if (node.method != null && !node.method.equals("ROOT")) {
-            signatures.add(node.method);
+    /**
+     * Caller chains of the method whose calls include the line, empty if there is none
+     */
+    public Optional<CallerChains> queryCallerChains(WorkspaceIndex workspaceIndex, String fullyQualifiedClassName,
+                                                    int lineNumber) {
+        int target = findTarget(workspaceIndex, fullyQualifiedClassName, lineNumber);
+        return target < 0 ? Optional.empty() : Optional.of(callerChains(workspaceIndex, target));
+    }
+
+    /**
+     * Caller chains of a method declared in an indexed file, empty if there is none
+     */
+    public Optional<CallerChains> queryCallerChains(WorkspaceIndex workspaceIndex, String signature) {
+        int target = workspaceIndex.getFilePath(signature) == null ? -1 : workspaceIndex.signatures.id(signature);
+        return target < 0 ? Optional.empty() : Optional.of(callerChains(workspaceIndex, target));
+    }
+
+    private CallerChains callerChains(WorkspaceIndex workspaceIndex, int target) {
+        String signature = workspaceIndex.signatures.name(target);
+        CallerChains cached = resultCache == null ? null : resultCache.get(workspaceIndex, signature);
+        if (cached != null) {
+            return cached;
         }
 
-        for (CallTreeNode child : node.children) {
-            collectMethodSignatures(child, signatures);
+        BitSet reaching = new BitSet();
+        CallTreeNode rootNode = buildCallTree(workspaceIndex, target, reaching);
+        List<MethodDetails> methods = new ArrayList<>();
+        try (PhaseProfiler.Phase phase = PhaseProfiler.start(PhaseProfiler.METHOD_DETAILS)) {
+            Map<String, SourceText> sourceByFile = new HashMap<>();
+            for (String method : methodSignatures(rootNode)) {
+                methods.add(extractMethodDetails(workspaceIndex, method, sourceByFile));
+            }
+            phase.count(PhaseProfiler.METHODS, methods.size());
+        }
+        CallerChains chains = new CallerChains(signature, rootNode, methods, reaching);
+        if (resultCache != null) {
+            resultCache.put(workspaceIndex, chains);
         }
+        return chains;
     }
 
-    private List<MethodDetails> extractMethodDetails(Set<String> methodSignatures) {
-        List<MethodDetails> methodDetails = new ArrayList<>();
+    /**
+     * Id of the method whose calls include the line, or -1 after logging why there is none
+     */
+    int findTarget(WorkspaceIndex workspaceIndex, String fullyQualifiedClassName, int lineNumber) {
+        // The method around the innermost callable at that line
+        WorkspaceIndex.CallableLocation location = workspaceIndex.findCallable(fullyQualifiedClassName, lineNumber);
+        FileSummary.MethodSummary targetMethod = location == null ? null : location.getMethod();
+        if (location != null && targetMethod == null) {
+            log.info("Line " + lineNumber + " of " + fullyQualifiedClassName + " is in a "
+                    + location.getKind().name().toLowerCase(Locale.ROOT)
+                    + " outside any method, which the call graph has no node for");
+            return -1;
+        }
+        if (targetMethod == null) {
+            log.info("No method found at line " + lineNumber + " in class " + fullyQualifiedClassName
+                    + " (only packages under '" + packagePrefix + "' are indexed)");
+            return -1;
+        }
+        return workspaceIndex.signatures.id(targetMethod.getSignature());
+    }
 
-        for (String signature : methodSignatures) {
-            MethodDeclaration methodDecl = methodSignatureToDeclaration.get(signature);
-            if (methodDecl != null) {
-                MethodDetails details = new MethodDetails();
-                details.name = extractMethodName(signature);
-                details.signature = signature;
-                details.body = extractMethodBody(methodDecl);
-                details.comments = extractMethodComments(methodDecl);
-                methodDetails.add(details);
+    /**
+     * Write the caller chains of a method as one JSON document
+     */
+    void writeCallerChains(WorkspaceIndex workspaceIndex, int target, Writer out) throws IOException {
+        PhaseProfiler.Phase phase = PhaseProfiler.start(PhaseProfiler.OUTPUT);
+        try {
+            JsonResultWriter writer = new JsonResultWriter(out, compact);
+            if (resultCache == null) {
+                writeResult(workspaceIndex, buildCallTree(workspaceIndex, target), writer);
             } else {
-                // Create basic details for unresolved methods
-                MethodDetails details = new MethodDetails();
-                details.name = extractMethodName(signature);
-                details.signature = signature;
-                details.body = "// Method body not available (external or unresolved)";
-                details.comments = "";
-                methodDetails.add(details);
+                // Cached results hold their method details, so the document is written from those
+                CallerChains chains = callerChains(workspaceIndex, target);
+                writeTree(chains.rootNode, writer);
+                writer.beginMethods();
+                for (MethodDetails details : chains.getMethods()) {
+                    writer.writeMethod(details);
+                }
+                writer.endMethods();
             }
+            writer.finish();
+        } finally {
+            phase.close();
         }
+    }
+
+    /**
+     * Body and comments of a method
+     */
+    MethodDetails methodDetails(WorkspaceIndex workspaceIndex, String signature) {
+        return extractMethodDetails(workspaceIndex, signature, new HashMap<>());
+    }
 
-        return methodDetails;
+    /**
+     * All unique methods in the tree, visiting each shared node once
+     */
+    private static Set<String> methodSignatures(CallTreeNode rootNode) {
+        Set<String> signatures = new HashSet<>();
+        Set<CallTreeNode> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<CallTreeNode> pending = new ArrayDeque<>();
+        pending.push(rootNode);
+        while (!pending.isEmpty()) {
+            CallTreeNode node = pending.pop();
+            if (!seen.add(node)) {
+                continue;
+            }
+            if (node.method != null && !node.method.equals("ROOT")) {
+                signatures.add(node.method);
+            }
+            // Pushed last to first, so nodes are visited in the order of the tree
+            for (int i = node.children.size() - 1; i >= 0; i--) {
+                pending.push(node.children.get(i));
+            }
+        }
+        return signatures;
+    }
+
+    /**
+     * @param sourceByFile the files read so far, so a file is read and indexed once per query
+     */
+    private MethodDetails extractMethodDetails(WorkspaceIndex index, String signature,
+                                               Map<String, SourceText> sourceByFile) {
+        FileSummary.MethodSummary method = index.findMethod(signature);
+        SourceText content = method == null ? null
+                : sourceByFile.computeIfAbsent(index.getFilePath(signature), path -> readSource(index, path));
+        MethodDetails details = new MethodDetails();
+        details.name = extractMethodName(signature);
+        details.signature = signature;
+        if (content != null) {
+            details.body = extractMethodBody(method, content);
+            details.comments = extractMethodComments(method, content);
+        } else {
+            // Basic details for unresolved methods
+            details.body = "// Method body not available (external or unresolved)";
+            details.comments = "";
+        }
+        return details;
     }
 
     private String extractMethodName(String signature) {
@@ -170,17 +382,26 @@ public class MethodCallFinder {
         }
     }
 
-    private String extractMethodBody(MethodDeclaration method) {
+    /**
+     * Content of an indexed file, or null if it changed on disk after it was indexed
+     */
+    private static SourceText readSource(WorkspaceIndex index, String filePath) {
+        FileSummary summary = index.summaries.get(filePath);
+        String content = summary == null ? null : summary.readSource();
+        return content == null ? null : new SourceText(content);
+    }
+
+    private String extractMethodBody(FileSummary.MethodSummary method, SourceText fileContent) {
         try {
-            if (method.getBody().isPresent()) {
+            if (method.hasBody()) {
                 // Try to get original formatted body from source file
-                String formattedBody = getOriginalFormattedBody(method);
+                String formattedBody = getOriginalFormattedBody(method, fileContent);
                 if (formattedBody != null) {
                     return formattedBody;
                 }
 
-                // Fallback to JavaParser's toString() but with better formatting
-                return method.getBody().get().toString();
+                // Fallback to the exact body text
+                return fileContent.substring(method.getBodyBeginOffset(), method.getBodyEndOffset());
             } else {
                 return "// Abstract method or interface method - no body";
             }
@@ -189,83 +410,39 @@ public class MethodCallFinder {
         }
     }
 
-    private String getOriginalFormattedBody(MethodDeclaration method) {
+    private String getOriginalFormattedBody(FileSummary.MethodSummary method, SourceText fileContent) {
         try {
-            // Find the file path for this method
-            String signature = getMethodSignature(method);
-            String filePath = methodToFilePath.get(signature);
-
-            if (filePath == null) {
+            int bodyBegin = method.getBodyBeginOffset();
+            int bodyEnd = method.getBodyEndOffset();
+            if (bodyBegin < 0 || bodyEnd > fileContent.length() || bodyBegin >= bodyEnd) {
                 return null;
             }
 
-            // Get the file content
-            String fileContent = filePathToContent.get(filePath);
-            if (fileContent == null) {
-                return null;
-            }
-
-            // Get the method body range
-            if (method.getBody().isPresent() && method.getBody().get().getRange().isPresent()) {
-                var bodyRange = method.getBody().get().getRange().get();
-
-                // Split file content into lines
-                String[] lines = fileContent.split("\n");
-
-                // Extract lines from start to end of method body (1-based to 0-based conversion)
-                int startLine = bodyRange.begin.line - 1;
-                int endLine = bodyRange.end.line - 1;
-
-                if (startLine >= 0 && endLine < lines.length && startLine <= endLine) {
-                    StringBuilder formattedBody = new StringBuilder();
-
-                    for (int i = startLine; i <= endLine; i++) {
-                        if (i > startLine) {
-                            formattedBody.append("\n");
-                        }
-                        formattedBody.append(lines[i]);
-                    }
-
-                    return formattedBody.toString();
-                }
-            }
-
-            return null;
+            // Extend the body range to whole lines, from the start of its first line
+            // to the end of its last line (excluding the newline)
+            return fileContent.wholeLines(bodyBegin, bodyEnd);
         } catch (Exception e) {
-            return null; // Fall back to default toString() method
+            return null; // Fall back to the exact body text
         }
     }
 
-    private String extractMethodComments(MethodDeclaration method) {
+    private String extractMethodComments(FileSummary.MethodSummary method, SourceText fileContent) {
         StringBuilder comments = new StringBuilder();
 
         try {
-            // Get Javadoc comment
-            if (method.getJavadocComment().isPresent()) {
-                JavadocComment javadoc = method.getJavadocComment().get();
-                comments.append("/**\n").append(javadoc.getContent()).append("\n*/\n");
-            }
-
-            // Get regular comment associated with the method
-            if (method.getComment().isPresent()) {
-                Comment comment = method.getComment().get();
-                comments.append(comment.toString()).append("\n");
-            }
+            // The method's own comment comes first, followed by orphan comments just above it
+            int[] offsets = method.getCommentOffsets();
+            for (int i = 0; i + 1 < offsets.length; i += 2) {
+                if (offsets[i] < 0) {
+                    continue;
+                }
+                Comment comment = commentAt(fileContent, offsets[i], offsets[i + 1]);
 
-            // Get orphan comments that might be associated with this method
-            if (method.getParentNode().isPresent()) {
-                List<Comment> orphanComments = method.getParentNode().get().getOrphanComments();
-                for (Comment orphanComment : orphanComments) {
-                    // Check if orphan comment is near this method (rough heuristic)
-                    if (orphanComment.getRange().isPresent() && method.getRange().isPresent()) {
-                        int commentLine = orphanComment.getRange().get().begin.line;
-                        int methodLine = method.getRange().get().begin.line;
-                        // Include orphan comments that are within 3 lines before the method
-                        if (commentLine >= methodLine - 3 && commentLine < methodLine) {
-                            comments.append(orphanComment.toString()).append("\n");
-                        }
-                    }
+                // Javadoc content first, then the comment as JavaParser prints it
+                if (i == 0 && comment instanceof JavadocComment) {
+                    comments.append("/**\n").append(comment.getContent()).append("\n*/\n");
                 }
+                comments.append(comment.toString()).append("\n");
             }
 
         } catch (Exception e) {
@@ -275,220 +452,64 @@ public class MethodCallFinder {
         return comments.toString().trim();
     }
 
-    private void buildMethodMetadata(Map<String, CompilationUnit> compilationUnits) {
-        for (Map.Entry<String, CompilationUnit> entry : compilationUnits.entrySet()) {
-            String filePath = entry.getKey();
-            CompilationUnit cu = entry.getValue();
-
-            for (MethodDeclaration method : cu.findAll(MethodDeclaration.class)) {
-                try {
-                    String signature = getMethodSignature(method);
-                    methodToFilePath.put(signature, filePath);
-                    methodSignatureToDeclaration.put(signature, method);
-                    if (method.getRange().isPresent()) {
-                        methodToLineNumber.put(signature, method.getRange().get().begin.line);
-                    }
-                } catch (Exception e) {
-                    // Skip unresolvable methods
-                }
-            }
-        }
-    }
-
-    private Map<String, CompilationUnit> parseAllJavaFiles(Path sourceRoot) throws IOException {
-        Map<String, CompilationUnit> compilationUnits = new HashMap<>();
-
-        Files.walk(sourceRoot)
-                .filter(path -> path.toString().endsWith(".java"))
-                .forEach(javaFile -> {
-                    try {
-                        // Read file content for formatting preservation
-                        String fileContent = new String(Files.readAllBytes(javaFile), StandardCharsets.UTF_8);
-                        filePathToContent.put(javaFile.toString(), fileContent);
-
-                        ParseResult<CompilationUnit> result = parser.parse(javaFile);
-                        if (result.isSuccessful() && result.getResult().isPresent()) {
-                            compilationUnits.put(javaFile.toString(), result.getResult().get());
-                        }
-                    } catch (IOException e) {
-                        log.info("Failed to parse " + javaFile + ": " + e.getMessage());
-                    }
-                });
-
-        return compilationUnits;
-    }
-
-    private MethodDeclaration findMethodByLine(String className, int lineNumber,
-                                               Map<String, CompilationUnit> compilationUnits) {
-        for (CompilationUnit cu : compilationUnits.values()) {
-            Optional<PackageDeclaration> pkg = cu.getPackageDeclaration();
-            if (pkg.isEmpty()) continue;
-
-            for (ClassOrInterfaceDeclaration clazz : cu.findAll(ClassOrInterfaceDeclaration.class)) {
-                String fullClassName = pkg.get().getNameAsString() + "." + clazz.getNameAsString();
-                if (fullClassName.equals(className)) {
-                    for (MethodDeclaration method : clazz.getMethods()) {
-                        if (method.getRange().isPresent() &&
-                                method.getRange().get().begin.line <= lineNumber &&
-                                method.getRange().get().end.line >= lineNumber) {
-                            return method;
-                        }
-                    }
-                }
-            }
+    /**
+     * Rebuild a comment node from its source text, so it prints the same as the parsed one
+     */
+    private static Comment commentAt(SourceText fileContent, int begin, int end) {
+        String text = fileContent.substring(begin, end);
+        if (text.startsWith("//")) {
+            return new LineComment(text.substring(2));
         }
-        return null;
-    }
-
-    private Map<String, Set<String>> buildInterfaceImplementationMap(Map<String, CompilationUnit> compilationUnits) {
-        Map<String, Set<String>> interfaceToImpls = new HashMap<>();
-
-        for (CompilationUnit cu : compilationUnits.values()) {
-            Optional<PackageDeclaration> pkg = cu.getPackageDeclaration();
-            if (pkg.isEmpty() || !pkg.get().getNameAsString().startsWith(packagePrefix)) continue;
-
-            for (ClassOrInterfaceDeclaration clazz : cu.findAll(ClassOrInterfaceDeclaration.class)) {
-                if (!clazz.isInterface() && !clazz.getImplementedTypes().isEmpty()) {
-                    for (MethodDeclaration method : clazz.getMethods()) {
-                        try {
-                            String implSignature = getMethodSignature(method);
-
-                            for (var implementedType : clazz.getImplementedTypes()) {
-                                try {
-                                    ResolvedReferenceTypeDeclaration resolvedInterface =
-                                            implementedType.resolve().asReferenceType().getTypeDeclaration().get();
-
-                                    String interfaceSignature = findInterfaceMethodSignature(
-                                            resolvedInterface, method.getNameAsString(), method);
-
-                                    if (interfaceSignature != null) {
-                                        interfaceToImpls.computeIfAbsent(interfaceSignature, k -> new HashSet<>())
-                                                .add(implSignature);
-                                    }
-                                } catch (Exception e) {
-                                    // Skip if cannot resolve interface
-                                }
-                            }
-                        } catch (Exception e) {
-                            // Skip if cannot resolve method
-                        }
-                    }
-                }
-            }
+        if (text.startsWith("/**") && text.length() > 4) {
+            return new JavadocComment(text.substring(3, text.length() - 2));
         }
+        return new BlockComment(text.substring(2, text.length() - 2));
+    }
 
-        return interfaceToImpls;
+    /**
+     * Parse the source root into an index that queries can share
+     */
+    public WorkspaceIndex buildIndex() throws IOException {
+        return buildIndex(sourceRoot);
     }
 
-    private String findInterfaceMethodSignature(ResolvedReferenceTypeDeclaration interfaceDecl,
-                                                String methodName, MethodDeclaration implMethod) {
-        try {
-            ResolvedMethodDeclaration resolvedImpl = implMethod.resolve();
-
-            for (ResolvedMethodDeclaration interfaceMethod : interfaceDecl.getDeclaredMethods()) {
-                if (interfaceMethod.getName().equals(methodName) &&
-                        interfaceMethod.getNumberOfParams() == resolvedImpl.getNumberOfParams()) {
-
-                    boolean paramsMatch = true;
-                    for (int i = 0; i < interfaceMethod.getNumberOfParams(); i++) {
-                        if (!interfaceMethod.getParam(i).getType().equals(resolvedImpl.getParam(i).getType())) {
-                            paramsMatch = false;
-                            break;
-                        }
-                    }
+    WorkspaceIndex buildIndex(Path sourceRoot) throws IOException {
+        // Each worker thread gets its own parser and symbol solver
+        SourceIndexer.IndexedSources sources =
+                new SourceIndexer(sourceRoot, packagePrefix, parallelism, summaryCache, callResolutionCache).index();
+        return WorkspaceIndex.build(sources, packagePrefix);
+    }
 
-                    if (paramsMatch) {
-                        return interfaceMethod.getQualifiedSignature();
-                    }
-                }
-            }
-        } catch (Exception e) {
-            // Fall back to basic signature matching
-        }
-        return null;
+    CallTreeNode buildCallTree(WorkspaceIndex index, int target) {
+        return buildCallTree(index, target, null);
     }
 
     /**
-     * Build enhanced call graph (caller -> callees) with better debugging
+     * @param reaching if not null, receives the ids of the target and the methods it can be reached from
      */
-    private Map<String, Set<String>> buildEnhancedCallGraph(
-            Map<String, CompilationUnit> compilationUnits,
-            Map<String, Set<String>> interfaceToImplementations) {
-
-        Map<String, Set<String>> callGraph = new HashMap<>();
-
-        for (CompilationUnit cu : compilationUnits.values()) {
-            Optional<PackageDeclaration> pkg = cu.getPackageDeclaration();
-            if (pkg.isEmpty() || !pkg.get().getNameAsString().startsWith(packagePrefix)) continue;
-
-            for (ClassOrInterfaceDeclaration clazz : cu.findAll(ClassOrInterfaceDeclaration.class)) {
-                String className = pkg.get().getNameAsString() + "." + clazz.getNameAsString();
-                if (!className.startsWith(packagePrefix)) continue;
-
-                for (MethodDeclaration method : clazz.getMethods()) {
-                    String callerSignature = getMethodSignature(method);
-
-                    for (MethodCallExpr callExpr : method.findAll(MethodCallExpr.class)) {
-                        try {
-                            ResolvedMethodDeclaration resolvedCallee = callExpr.resolve();
-                            String calleeSignature = resolvedCallee.getQualifiedSignature();
-
-                            // Add direct call relationship
-                            callGraph.computeIfAbsent(callerSignature, k -> new HashSet<>())
-                                    .add(calleeSignature);
-
-                            // If this is an interface call, also add relationships to implementations
-                            Set<String> implementations = interfaceToImplementations.get(calleeSignature);
-                            if (implementations != null) {
-                                for (String implSignature : implementations) {
-                                    callGraph.computeIfAbsent(callerSignature, k -> new HashSet<>())
-                                            .add(implSignature);
-                                }
-                            }
-
-                        } catch (Exception e) {
-                            // Skip unresolvable calls
-                        }
-                    }
-                }
+    CallTreeNode buildCallTree(WorkspaceIndex index, int target, BitSet reaching) {
+        try (PhaseProfiler.Phase phase = PhaseProfiler.start(PhaseProfiler.CALL_TREE)) {
+            // Methods that can reach the target are found first, walking the callers of the target
+            CallTreeBuilder builder = new CallTreeBuilder(index, target);
+            if (reaching != null) {
+                reaching.or(builder.methodsReaching());
             }
+            CallTreeNode root = buildCallTree(index, builder);
+            phase.count(PhaseProfiler.NODES, builder.nodeCount);
+            phase.count(PhaseProfiler.EDGES, builder.edgeCount);
+            return root;
         }
-
-        // Debug: Print call graph
-        log.info("=== CALL GRAPH DEBUG ===");
-        for (Map.Entry<String, Set<String>> entry : callGraph.entrySet()) {
-            log.info(entry.getKey() + " -> " + entry.getValue());
-        }
-        log.info("========================");
-
-        return callGraph;
     }
 
-    private CallTreeNode buildCallTree(String targetSignature, Map<String, Set<String>> callGraph) {
-        // Find entry points (methods with no callers or main methods)
-        Set<String> allMethods = new HashSet<>(callGraph.keySet());
-        Set<String> calledMethods = new HashSet<>();
-
-        // Collect all called methods
-        for (Set<String> callees : callGraph.values()) {
-            calledMethods.addAll(callees);
-        }
-
-        // Entry points are methods that are never called by others, or are main methods
-        Set<String> entryPoints = new HashSet<>();
-        for (String method : allMethods) {
-            if (!calledMethods.contains(method) || method.contains("main(")) {
-                entryPoints.add(method);
-            }
-        }
-
-        // Build tree from entry points that can reach the target
+    private static CallTreeNode buildCallTree(WorkspaceIndex index, CallTreeBuilder builder) {
+        // Build tree from entry points (methods with no callers or main methods) that can reach the target
         CallTreeNode root = new CallTreeNode();
         root.method = "ROOT";
         root.children = new ArrayList<>();
 
-        for (String entryPoint : entryPoints) {
-            CallTreeNode entryNode = buildTreeFromEntryPoint(entryPoint, targetSignature, callGraph, new HashSet<>());
+        // Subtrees are shared between entry points
+        for (int entryPoint : builder.reachableEntryPoints()) {
+            CallTreeNode entryNode = builder.build(entryPoint);
             if (entryNode != null) {
                 root.children.add(entryNode);
             }
@@ -497,8 +518,11 @@ public class MethodCallFinder {
         // If no entry points found, try to find any path to target
         if (root.children.isEmpty()) {
             // Look for any method that can reach the target
-            for (String method : allMethods) {
-                CallTreeNode node = buildTreeFromEntryPoint(method, targetSignature, callGraph, new HashSet<>());
+            for (int method : index.callers) {
+                if (!builder.canReach(method)) {
+                    continue;
+                }
+                CallTreeNode node = builder.build(method);
                 if (node != null) {
                     root.children.add(node);
                     break; // Just take the first valid path
@@ -509,97 +533,257 @@ public class MethodCallFinder {
         return root;
     }
 
-    private CallTreeNode buildTreeFromEntryPoint(String currentSignature, String targetSignature,
-                                                 Map<String, Set<String>> callGraph, Set<String> visited) {
-        if (visited.contains(currentSignature)) {
-            return null; // Avoid cycles
+    private void outputJsonTree(WorkspaceIndex index, CallTreeNode rootNode) throws IOException {
+        if (outputFile == null) {
+            System.out.println("TREE_DAG_JSON:");
+        }
+        PhaseProfiler.Phase phase = PhaseProfiler.start(PhaseProfiler.OUTPUT);
+        try (Writer out = openOutput()) {
+            JsonResultWriter writer = new JsonResultWriter(out, compact);
+            writeResult(index, rootNode, writer);
+            writer.finish();
+            if (outputFile == null) {
+                out.write(System.lineSeparator());
+            }
+        } finally {
+            phase.close();
+        }
+        if (outputFile != null) {
+            log.info("Wrote caller chains to " + outputFile + (gzip ? " (gzip)" : ""));
         }
+    }
 
-        visited.add(currentSignature);
+    /**
+     * Buffered writer for the output file, gzipped if configured, or for stdout. Closing it
+     * flushes, but leaves System.out open.
+     */
+    Writer openOutput() throws IOException {
+        if (outputFile == null) {
+            return new BufferedWriter(new OutputStreamWriter(System.out, Charset.defaultCharset())) {
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+        }
+        OutputStream stream = new BufferedOutputStream(Files.newOutputStream(outputFile));
+        return new BufferedWriter(new OutputStreamWriter(
+                gzip ? new GZIPOutputStream(stream) : stream, StandardCharsets.UTF_8));
+    }
 
-        // Create node for current method
-        CallTreeNode node = createNodeFromSignature(currentSignature);
+    /**
+     * Write dag_tree (or dag) and the methods in it into the current JSON object
+     */
+    void writeResult(WorkspaceIndex index, CallTreeNode rootNode, JsonResultWriter writer) throws IOException {
+        writeTree(rootNode, writer);
+
+        // Each method is written as soon as it is extracted, so the bodies are not all held at once
+        writer.beginMethods();
+        try (PhaseProfiler.Phase phase = PhaseProfiler.start(PhaseProfiler.METHOD_DETAILS)) {
+            Map<String, SourceText> sourceByFile = new HashMap<>();
+            Set<String> signatures = methodSignatures(rootNode);
+            for (String signature : signatures) {
+                writer.writeMethod(extractMethodDetails(index, signature, sourceByFile));
+            }
+            phase.count(PhaseProfiler.METHODS, signatures.size());
+        }
+        writer.endMethods();
+    }
 
-        // If this is the target method, we found our destination
-        if (currentSignature.equals(targetSignature)) {
-            visited.remove(currentSignature);
-            return node;
+    private void writeTree(CallTreeNode rootNode, JsonResultWriter writer) throws IOException {
+        if (layout == Layout.DAG) {
+            writer.writeDag(toDag(rootNode));
+        } else {
+            writer.writeTree(firstEntry(rootNode), layout == Layout.SHARED);
         }
+    }
 
-        // Recursively build children for all callees that are in our package
-        Set<String> callees = callGraph.getOrDefault(currentSignature, new HashSet<>());
-        boolean hasValidChildren = false;
+    /**
+     * The first (and likely only) entry point below ROOT, or ROOT itself when there is none
+     */
+    static CallTreeNode firstEntry(CallTreeNode rootNode) {
+        return rootNode.children.isEmpty() ? rootNode : rootNode.children.get(0);
+    }
 
-        for (String callee : callees) {
-            // Only include callees that are part of our package prefix
-            if (callee.startsWith(packagePrefix)) {
-                CallTreeNode childNode = buildTreeFromEntryPoint(callee, targetSignature, callGraph, new HashSet<>(visited));
-                if (childNode != null) {
-                    node.children.add(childNode);
-                    hasValidChildren = true;
+    /**
+     * Node table and edge list of the tree below the first entry point. Its size depends on the
+     * number of distinct methods and calls, not on the number of paths.
+     */
+    static Dag toDag(CallTreeNode rootNode) {
+        Dag dag = new Dag();
+        if (rootNode.children.isEmpty()) {
+            return dag;
+        }
+        Map<String, Integer> nodeIds = new HashMap<>();
+        Map<String, Integer> fileIds = new HashMap<>();
+        Set<Long> edges = new HashSet<>();
+        // A shared subtree is walked once
+        Set<CallTreeNode> expanded = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        // Depth first, with the path in arrays so that chains of any length fit; an edge is added
+        // once the subtree of its callee is done, which keeps the order of the recursive walk
+        CallTreeNode entry = rootNode.children.get(0);
+        dag.root = dagNodeId(entry, dag, nodeIds, fileIds);
+        expanded.add(entry);
+        CallTreeNode[] pathNodes = {entry};
+        int[] pathIds = {dag.root};
+        int[] nextChild = {0};
+        int depth = 1;
+        while (depth > 0) {
+            int top = depth - 1;
+            CallTreeNode node = pathNodes[top];
+            if (nextChild[top] < node.children.size()) {
+                CallTreeNode child = node.children.get(nextChild[top]++);
+                int childId = dagNodeId(child, dag, nodeIds, fileIds);
+                if (expanded.add(child)) {
+                    if (depth == pathNodes.length) {
+                        pathNodes = Arrays.copyOf(pathNodes, depth * 2);
+                        pathIds = Arrays.copyOf(pathIds, depth * 2);
+                        nextChild = Arrays.copyOf(nextChild, depth * 2);
+                    }
+                    pathNodes[depth] = child;
+                    pathIds[depth] = childId;
+                    nextChild[depth] = 0;
+                    depth++;
+                } else {
+                    addDagEdge(dag, edges, pathIds[top], childId);
                 }
+                continue;
+            }
+            depth--;
+            if (depth > 0) {
+                addDagEdge(dag, edges, pathIds[depth - 1], pathIds[depth]);
             }
         }
-
-        visited.remove(currentSignature);
-
-        // Return node only if it's the target or has children that lead to target
-        return (hasValidChildren || currentSignature.equals(targetSignature)) ? node : null;
+        return dag;
     }
 
-    private CallTreeNode createNodeFromSignature(String signature) {
-        CallTreeNode node = new CallTreeNode();
-        node.method = signature;
-        node.file = methodToFilePath.getOrDefault(signature, "unknown");
-        node.line = methodToLineNumber.getOrDefault(signature, 0);
-        node.children = new ArrayList<>();
-        return node;
+    private static int dagNodeId(CallTreeNode node, Dag dag, Map<String, Integer> nodeIds, Map<String, Integer> fileIds) {
+        Integer id = nodeIds.get(node.method);
+        if (id == null) {
+            id = dag.nodes.size();
+            nodeIds.put(node.method, id);
+            DagNode dagNode = new DagNode();
+            dagNode.id = id;
+            dagNode.signature = node.method;
+            dagNode.file = "unknown".equals(node.file) ? -1 : fileIds.computeIfAbsent(node.file, file -> {
+                dag.files.add(file);
+                return dag.files.size() - 1;
+            });
+            dagNode.line = node.line;
+            dag.nodes.add(dagNode);
+        }
+        return id;
     }
 
-    private String getMethodSignature(MethodDeclaration method) {
-        try {
-            return method.resolve().getQualifiedSignature();
-        } catch (Exception e) {
-            // Fallback to simple signature
-            return method.getDeclarationAsString(false, false, false);
+    private static void addDagEdge(Dag dag, Set<Long> edges, int caller, int callee) {
+        if (edges.add(((long) caller << 32) | callee)) {
+            dag.edges.add(new int[]{caller, callee});
         }
     }
 
-    private void outputJsonTree(CallTreeNode rootNode, List<MethodDetails> methodDetails) {
-        // Create the final JSON structure
-        JsonOutput output = new JsonOutput();
+    // JSON structure classes, written by JsonResultWriter and returned by queries
+    public static class CallTreeNode {
+        String method;
+        String file;
+        int line;
+        List<CallTreeNode> children = new ArrayList<>();
 
-        if (!rootNode.children.isEmpty()) {
-            output.dag_tree = rootNode.children.get(0); // Take the first (and likely only) entry point
-        } else {
-            output.dag_tree = rootNode;
+        public String getMethod() {
+            return method;
+        }
+
+        public String getFile() {
+            return file;
         }
 
-        output.methods = methodDetails;
+        public int getLine() {
+            return line;
+        }
 
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        System.out.println("TREE_DAG_JSON:");
-        System.out.println(gson.toJson(output));
+        /**
+         * Callees on the paths to the target. A node can be the child of several nodes.
+         */
+        public List<CallTreeNode> getChildren() {
+            return Collections.unmodifiableList(children);
+        }
     }
 
-    // JSON structure classes
-    static class JsonOutput {
-        CallTreeNode dag_tree;
-        List<MethodDetails> methods;
+    /**
+     * Methods on the paths to the target. Node ids index {@code nodes}, file ids index {@code files}
+     * (-1 when unknown), and each edge is a [caller id, callee id] pair. A method that is part of a
+     * call cycle can make the edges cyclic too.
+     */
+    public static class Dag {
+        Integer root;
+        List<String> files = new ArrayList<>();
+        List<DagNode> nodes = new ArrayList<>();
+        List<int[]> edges = new ArrayList<>();
+
+        /**
+         * Id of the entry point node, null when no entry point reaches the target
+         */
+        public Integer getRoot() {
+            return root;
+        }
+
+        public List<String> getFiles() {
+            return Collections.unmodifiableList(files);
+        }
+
+        public List<DagNode> getNodes() {
+            return Collections.unmodifiableList(nodes);
+        }
+
+        public List<int[]> getEdges() {
+            return Collections.unmodifiableList(edges);
+        }
     }
 
-    static class CallTreeNode {
-        String method;
-        String file;
+    public static class DagNode {
+        int id;
+        String signature;
+        int file;
         int line;
-        List<CallTreeNode> children = new ArrayList<>();
+
+        public int getId() {
+            return id;
+        }
+
+        public String getSignature() {
+            return signature;
+        }
+
+        public int getFile() {
+            return file;
+        }
+
+        public int getLine() {
+            return line;
+        }
     }
 
-    static class MethodDetails {
+    public static class MethodDetails {
         String name;
         String signature;
         String body;
         String comments;
+
+        public String getName() {
+            return name;
+        }
+
+        public String getSignature() {
+            return signature;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        public String getComments() {
+            return comments;
+        }
     }
 
     // Main method for testing
@@ -608,6 +792,7 @@ public class MethodCallFinder {
         int lineNumber = 32;
         Path sourceRoot = Paths.get("src/main/java");
         String packagePrefix = "com.hack.parser.test";
+        int parallelism = ParallelSourceParser.defaultParallelism();
 
         if (args.length >= 4) {
             fullyQualifiedClassName = args[0];
@@ -620,8 +805,127 @@ public class MethodCallFinder {
             sourceRoot = Paths.get(args[2]);
             packagePrefix = args[3];
         }
+        if (args.length >= 5) {
+            try {
+                parallelism = Integer.parseInt(args[4]);
+            } catch (NumberFormatException e) {
+                log.info("Invalid thread count: " + args[4]);
+                System.exit(1);
+            }
+        }
 
-        MethodCallFinder finder = new MethodCallFinder(sourceRoot, packagePrefix);
-        finder.findCallerChains(sourceRoot, fullyQualifiedClassName, lineNumber);
+        String port = System.getProperty(AnalysisServer.PORT_PROPERTY);
+        if (port != null && !port.isBlank()) {
+            runServerMode(sourceRoot, packagePrefix, parallelism, port.trim());
+            return;
+        }
+        if (Boolean.getBoolean(WATCH_PROPERTY)) {
+            runWatchMode(sourceRoot, packagePrefix, parallelism);
+        } else {
+            String batch = System.getProperty(BATCH_PROPERTY);
+            if (batch != null && !batch.isBlank()) {
+                runBatchMode(sourceRoot, packagePrefix, parallelism, batch.trim());
+            } else {
+                MethodCallFinder finder = new MethodCallFinder(sourceRoot, packagePrefix, parallelism);
+                finder.findCallerChains(sourceRoot, fullyQualifiedClassName, lineNumber);
+            }
+        }
+        PhaseProfiler.writeReportIfRequested();
+    }
+
+    /**
+     * Index once and answer HTTP queries until the process is stopped. With watch mode on as well,
+     * the index is kept current while files change.
+     */
+    private static void runServerMode(Path sourceRoot, String packagePrefix, int parallelism, String port) {
+        try {
+            int portNumber = Integer.parseInt(port);
+            WorkspaceWatcher watcher = null;
+            Supplier<WorkspaceIndex> index;
+            if (Boolean.getBoolean(WATCH_PROPERTY)) {
+                watcher = WorkspaceWatcher.start(sourceRoot, packagePrefix, parallelism,
+                        ParseSummaryCache.fromSystemProperty());
+                index = watcher::snapshot;
+            } else {
+                WorkspaceIndex built = new MethodCallFinder(sourceRoot, packagePrefix, parallelism).buildIndex(sourceRoot);
+                index = () -> built;
+            }
+            QueryResultCache resultCache = QueryResultCache.fromSystemProperty();
+            if (watcher != null && resultCache != null) {
+                watcher.addUpdateListener(resultCache::invalidate);
+            }
+            AnalysisServer server = AnalysisServer.start(portNumber, index, sourceRoot, packagePrefix, parallelism,
+                    resultCache);
+            WorkspaceWatcher watching = watcher;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.close();
+                PhaseProfiler.writeReportIfRequested();
+                if (watching != null) {
+                    try {
+                        watching.close();
+                    } catch (IOException e) {
+                        log.info("Error stopping the watcher: " + e.getMessage());
+                    }
+                }
+            }));
+        } catch (NumberFormatException e) {
+            log.info("Invalid port: " + port);
+        } catch (IOException e) {
+            log.info("Server mode failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Index once, then write one result per unique top frame of the stack traces in the input,
+     * one JSON object per line
+     */
+    private static void runBatchMode(Path sourceRoot, String packagePrefix, int parallelism, String input) {
+        MethodCallFinder finder = new MethodCallFinder(sourceRoot, packagePrefix, parallelism);
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(openInput(input), StandardCharsets.UTF_8));
+             Writer out = finder.openOutput()) {
+            long start = System.nanoTime();
+            WorkspaceIndex index = finder.buildIndex(sourceRoot);
+            log.info("Indexed " + sourceRoot + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            new StackTraceTriage(finder, index).run(in, out);
+        } catch (IOException e) {
+            log.info("Batch mode failed: " + e.getMessage());
+        }
+    }
+
+    private static InputStream openInput(String input) throws IOException {
+        if ("-".equals(input)) {
+            return System.in;
+        }
+        InputStream stream = new BufferedInputStream(Files.newInputStream(Paths.get(input)));
+        return input.endsWith(".gz") ? new GZIPInputStream(stream) : stream;
+    }
+
+    /**
+     * Index once, keep the index current with a file watcher and answer one query per stdin line
+     * of the form "<fully.qualified.ClassName> <lineNumber>"
+     */
+    private static void runWatchMode(Path sourceRoot, String packagePrefix, int parallelism) {
+        try (WorkspaceWatcher watcher = WorkspaceWatcher.start(sourceRoot, packagePrefix, parallelism,
+                ParseSummaryCache.fromSystemProperty());
+             BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))) {
+            log.info("Watch mode: enter '<fully.qualified.ClassName> <lineNumber>' per line, EOF to exit");
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.trim().split("\\s+");
+                if (parts.length != 2) {
+                    log.info("Expected '<fully.qualified.ClassName> <lineNumber>', got: " + line);
+                    continue;
+                }
+                try {
+                    int lineNumber = Integer.parseInt(parts[1]);
+                    new MethodCallFinder(sourceRoot, packagePrefix, parallelism, null)
+                            .findCallerChains(watcher.snapshot(), parts[0], lineNumber);
+                } catch (NumberFormatException e) {
+                    log.info("Invalid line number: " + parts[1]);
+                }
+            }
+        } catch (IOException e) {
+            log.info("Watch mode failed: " + e.getMessage());
+        }
     }
-}
\ No newline at end of file
+}
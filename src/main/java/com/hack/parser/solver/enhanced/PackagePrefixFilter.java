@@ -0,0 +1,121 @@
+package com.hack.parser.solver.enhanced;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides which files belong to the package prefix before they are parsed, from the package line
+ * of each file. The directory layout is not relied on, since a directory can mix packages or start
+ * with a package-info.java or a template. Files are read on the parser's workers, and only their
+ * first {@value #SNIFF_BYTES} bytes unless the package line comes later or the file is selected. The
+ * content of the selected ones is handed on so that parsing does not read them again. Files outside
+ * the prefix are never parsed up front, but stay on disk under the source root where the
+ * JavaParserTypeSolver loads them on demand during symbol resolution.
+ */
+@Slf4j
+public class PackagePrefixFilter {
+
+    /** Bytes read from the start of each file to find its package line */
+    static final int SNIFF_BYTES = 8 * 1024;
+
+    private final String packagePrefix;
+
+    public PackagePrefixFilter(String packagePrefix) {
+        this.packagePrefix = packagePrefix;
+    }
+
+    /**
+     * @return the content of the files that declare a package starting with the prefix, in input order
+     */
+    public Map<Path, String> select(ParallelSourceParser parser, List<Path> javaFiles) throws IOException {
+        AtomicInteger withoutPackage = new AtomicInteger();
+        List<String> contents = parser.runOnFiles(javaFiles, javaFile -> {
+            SourceFileLoader.Head head = SourceFileLoader.readHead(javaFile, SNIFF_BYTES);
+            String content = head.complete ? head.text : null;
+            String packageName = packageOf(head.text);
+            if (packageName == null && content == null) {
+                // Long license headers can push the package line past the head
+                content = SourceFileLoader.read(javaFile);
+                packageName = packageOf(content);
+            }
+            if (packageName == null) {
+                withoutPackage.incrementAndGet();
+                return null;
+            }
+            if (!packageName.startsWith(packagePrefix)) {
+                return null;
+            }
+            return content != null ? content : SourceFileLoader.read(javaFile);
+        });
+
+        Map<Path, String> selected = new LinkedHashMap<>();
+        for (int i = 0; i < javaFiles.size(); i++) {
+            if (contents.get(i) != null) {
+                selected.put(javaFiles.get(i), contents.get(i));
+            }
+        }
+        log.info("Package prefix '" + packagePrefix + "' selects " + selected.size() + " of " + javaFiles.size()
+                + " files" + (withoutPackage.get() == 0 ? ""
+                : ", skipping " + withoutPackage.get() + " without a package declaration"));
+        return selected;
+    }
+
+    /**
+     * Skips whitespace, comments and annotations, then reads "package a.b.c;" if that is the first
+     * declaration in the text. Returns null for the default package.
+     */
+    static String packageOf(String content) {
+        int i = 0;
+        int length = content.length();
+        while (i < length) {
+            char c = content.charAt(i);
+            if (Character.isWhitespace(c) || c == '\uFEFF') {
+                i++;
+            } else if (content.startsWith("//", i)) {
+                int end = content.indexOf('\n', i);
+                i = end < 0 ? length : end + 1;
+            } else if (content.startsWith("/*", i)) {
+                int end = content.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else if (c == '@') {
+                i = skipAnnotation(content, i + 1);
+            } else if (content.startsWith("package", i) && i + 7 < length
+                    && !Character.isJavaIdentifierPart(content.charAt(i + 7))) {
+                int end = content.indexOf(';', i);
+                if (end < 0) {
+                    return null;
+                }
+                String name = content.substring(i + 7, end).replaceAll("\\s+|/\\*.*?\\*/", "");
+                return name.isEmpty() ? null : name;
+            } else {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static int skipAnnotation(String content, int i) {
+        int length = content.length();
+        while (i < length && (Character.isJavaIdentifierPart(content.charAt(i)) || content.charAt(i) == '.')) {
+            i++;
+        }
+        while (i < length && Character.isWhitespace(content.charAt(i))) {
+            i++;
+        }
+        if (i < length && content.charAt(i) == '(') {
+            int depth = 0;
+            for (; i < length; i++) {
+                if (content.charAt(i) == '(') {
+                    depth++;
+                } else if (content.charAt(i) == ')' && --depth == 0) {
+                    return i + 1;
+                }
+            }
+        }
+        return i;
+    }
+}
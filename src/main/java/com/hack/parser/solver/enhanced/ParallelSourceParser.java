@@ -0,0 +1,283 @@
+package com.hack.parser.solver.enhanced;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseResult;
+import com.github.javaparser.ParserConfiguration;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.resolution.declarations.ResolvedReferenceTypeDeclaration;
+import com.github.javaparser.resolution.model.SymbolReference;
+import com.github.javaparser.symbolsolver.JavaSymbolSolver;
+import com.github.javaparser.symbolsolver.cache.Cache;
+import com.github.javaparser.symbolsolver.cache.GuavaCache;
+import com.github.javaparser.symbolsolver.cache.InMemoryCache;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.CombinedTypeSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.JavaParserTypeSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeSolver;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Parses all Java files under a source root on a bounded pool of worker threads.
+ * JavaParser and its symbol solver are not thread-safe, so every worker gets its own instance.
+ * The pool lives as long as this object, so the workers' parsers and the declarations their type
+ * solvers have loaded carry over from one call to the next until {@link #close()}.
+ */
+@Slf4j
+public class ParallelSourceParser implements Closeable {
+
+    /** System property used to override the number of parser threads */
+    public static final String THREADS_PROPERTY = "parser.threads";
+
+    private final Path sourceRoot;
+    private final ExecutorService pool;
+    /** Parser of each worker thread, created on the first file the thread parses */
+    private final ThreadLocal<WorkerParser> workerParser;
+    /** Every worker's parser, so that {@link #forget} can reach them from the calling thread */
+    private final List<WorkerParser> workerParsers = new CopyOnWriteArrayList<>();
+
+    public ParallelSourceParser(Path sourceRoot, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, got " + parallelism);
+        }
+        this.sourceRoot = sourceRoot;
+        this.pool = Executors.newFixedThreadPool(parallelism, new ParserThreadFactory());
+        this.workerParser = ThreadLocal.withInitial(() -> {
+            WorkerParser worker = new WorkerParser(sourceRoot);
+            workerParsers.add(worker);
+            return worker;
+        });
+    }
+
+    /**
+     * Thread count from -Dparser.threads, defaulting to the number of available processors
+     */
+    public static int defaultParallelism() {
+        return Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+    }
+
+    public static JavaParser createParser(Path sourceRoot) {
+        return createParser(sourceRoot, null);
+    }
+
+    /**
+     * @param parsedTypes solver over units this parser has already produced, consulted before the
+     *                    source root is searched; null to always go to the source root
+     */
+    public static JavaParser createParser(Path sourceRoot, ParsedTypeSolver parsedTypes) {
+        return createParser(new JavaParserTypeSolver(sourceRoot.toFile()), parsedTypes, InMemoryCache.create());
+    }
+
+    /**
+     * @param solvedTypes cache of the combined solver, which keeps every type it was asked for
+     */
+    private static JavaParser createParser(JavaParserTypeSolver sourceTypes, ParsedTypeSolver parsedTypes,
+                                           Cache<String, SymbolReference<ResolvedReferenceTypeDeclaration>> solvedTypes) {
+        CombinedTypeSolver typeSolver = new CombinedTypeSolver(CombinedTypeSolver.ExceptionHandlers.IGNORE_NONE,
+                Collections.singletonList(new ReflectionTypeSolver()), solvedTypes);
+        if (parsedTypes != null) {
+            typeSolver.add(parsedTypes);
+        }
+        typeSolver.add(sourceTypes);
+        JavaSymbolSolver symbolSolver = new JavaSymbolSolver(typeSolver);
+        ParserConfiguration config = new ParserConfiguration().setSymbolResolver(symbolSolver);
+        return new JavaParser(config);
+    }
+
+    public List<Path> listJavaFiles() throws IOException {
+        try (Stream<Path> paths = Files.walk(sourceRoot)) {
+            return paths.filter(path -> path.toString().endsWith(".java"))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Parse the given files on the worker pool and hand each result to the handler on the same
+     * worker thread, so the handler may resolve symbols against that worker's parser.
+     *
+     * @param knownContent content that has already been loaded, files not in the map are read from disk
+     * @return handler results in the same order as the input files, null for files that could not be read
+     */
+    public <T> List<T> parseFiles(List<Path> javaFiles, Map<Path, String> knownContent,
+                                  ParsedFileHandler<T> handler) throws IOException {
+        return runOnWorkers(javaFiles, javaFile -> {
+            String content = knownContent.get(javaFile);
+            if (content == null) {
+                content = SourceFileLoader.read(javaFile);
+            }
+            WorkerParser worker = workerParser.get();
+            CompilationUnit cu = parse(javaFile, content, worker.parser);
+            if (cu != null) {
+                // Types of this and recently parsed files are solved without going back to disk
+                worker.parsedTypes.register(cu);
+            }
+            return handler.handle(javaFile, content, cu);
+        });
+    }
+
+    /**
+     * Read the given files on the worker pool without parsing them
+     */
+    public Map<Path, String> readFiles(List<Path> javaFiles) throws IOException {
+        List<String> contents = runOnWorkers(javaFiles, SourceFileLoader::read);
+        Map<Path, String> result = new LinkedHashMap<>();
+        for (int i = 0; i < javaFiles.size(); i++) {
+            if (contents.get(i) != null) {
+                result.put(javaFiles.get(i), contents.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Run a task for each of the given files on the worker pool, e.g. to read only what it needs of them
+     *
+     * @return task results in the same order as the input files, null for files that could not be read
+     */
+    public <T> List<T> runOnFiles(List<Path> javaFiles, FileTask<T> task) throws IOException {
+        return runOnWorkers(javaFiles, task);
+    }
+
+    /**
+     * Drop what the workers have loaded from the given files, so the next parse sees their current
+     * declarations. Must not be called while files are being parsed.
+     *
+     * @param changedFiles files that were added, modified or deleted since they were last parsed
+     */
+    public void forget(Collection<Path> changedFiles) {
+        // Handing the next files to the pool publishes these changes to the workers
+        for (WorkerParser worker : workerParsers) {
+            worker.forget(changedFiles);
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private <T> List<T> runOnWorkers(List<Path> javaFiles, FileTask<T> task) throws IOException {
+        // What the workers use counts for the phase that handed them the files
+        PhaseProfiler.Phase phase = PhaseProfiler.current();
+        List<Future<T>> futures = new ArrayList<>(javaFiles.size());
+        try {
+            for (Path javaFile : javaFiles) {
+                futures.add(pool.submit(() -> {
+                    PhaseProfiler.Usage start = phase == null ? null : new PhaseProfiler.Usage();
+                    try {
+                        return task.run(javaFile);
+                    } catch (IOException e) {
+                        log.info("Failed to read " + javaFile + ": " + e.getMessage());
+                        return null;
+                    } finally {
+                        if (phase != null) {
+                            phase.addWorkerUsage(start);
+                        }
+                    }
+                }));
+            }
+
+            List<T> results = new ArrayList<>(javaFiles.size());
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing " + sourceRoot, e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw new IOException("Failed to parse sources under " + sourceRoot, e.getCause());
+        } catch (RejectedExecutionException e) {
+            throw new IOException("Parser for " + sourceRoot + " is closed", e);
+        }
+    }
+
+    /**
+     * @return the CompilationUnit, or null if the content has syntax errors
+     */
+    static CompilationUnit parse(Path javaFile, String content, JavaParser parser) {
+        ParseResult<CompilationUnit> result = parser.parse(content);
+        CompilationUnit cu = result.isSuccessful() ? result.getResult().orElse(null) : null;
+        if (cu != null) {
+            cu.setStorage(javaFile, StandardCharsets.UTF_8);
+        }
+        return cu;
+    }
+
+    /**
+     * Receives each parsed file on the worker thread that parsed it
+     */
+    @FunctionalInterface
+    public interface ParsedFileHandler<T> {
+        /**
+         * @param compilationUnit null if the file could not be parsed
+         */
+        T handle(Path javaFile, String content, CompilationUnit compilationUnit);
+    }
+
+    @FunctionalInterface
+    public interface FileTask<T> {
+        T run(Path javaFile) throws IOException;
+    }
+
+    /**
+     * Parser of one worker thread, with the type solver over the units it has parsed. The caches of
+     * its source root type solver are kept here so that changed files can be dropped from them.
+     */
+    private static class WorkerParser {
+        final ParsedTypeSolver parsedTypes = new ParsedTypeSolver();
+        /** Same soft-valued caches the JavaParserTypeSolver builds for itself */
+        final Cache<Path, Optional<CompilationUnit>> parsedFiles = softCache();
+        final Cache<Path, List<CompilationUnit>> parsedDirectories = softCache();
+        final Cache<String, SymbolReference<ResolvedReferenceTypeDeclaration>> foundTypes = softCache();
+        /** Types the combined solver has found, in this or in any of the solvers above */
+        final Cache<String, SymbolReference<ResolvedReferenceTypeDeclaration>> solvedTypes = softCache();
+        final JavaParser parser;
+
+        WorkerParser(Path sourceRoot) {
+            JavaParserTypeSolver sourceTypes = new JavaParserTypeSolver(sourceRoot,
+                    new JavaParser(new ParserConfiguration()), parsedFiles, parsedDirectories, foundTypes);
+            this.parser = createParser(sourceTypes, parsedTypes, solvedTypes);
+        }
+
+        void forget(Collection<Path> changedFiles) {
+            // Declarations solved from older units may be anywhere in these, and are cheap to solve again
+            parsedTypes.clear();
+            foundTypes.removeAll();
+            solvedTypes.removeAll();
+            for (Path file : changedFiles) {
+                Path absolute = file.toAbsolutePath();
+                parsedFiles.remove(absolute);
+                if (absolute.getParent() != null) {
+                    parsedDirectories.remove(absolute.getParent());
+                }
+            }
+        }
+
+        private static <K, V> Cache<K, V> softCache() {
+            return new GuavaCache<>(CacheBuilder.newBuilder().softValues().build());
+        }
+    }
+
+    private static class ParserThreadFactory implements ThreadFactory {
+        private int counter = 0;
+
+        @Override
+        public synchronized Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "java-parser-" + counter++);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.hack.parser.solver.enhanced;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * On-disk store of {@link FileSummary} entries keyed by the SHA-256 of the file content.
+ * Entries are plain JSON files spread over 256 sub-directories, e.g. {@code <dir>/3f/3f9a...json}.
+ */
+@Slf4j
+public class ParseSummaryCache {
+
+    /** System property used to enable the cache and choose its directory */
+    public static final String CACHE_DIR_PROPERTY = "parser.cacheDir";
+
+    private final Path directory;
+    private final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+
+    public ParseSummaryCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Cache configured through -Dparser.cacheDir, or null when caching is disabled
+     */
+    public static ParseSummaryCache fromSystemProperty() {
+        String dir = System.getProperty(CACHE_DIR_PROPERTY);
+        return dir == null || dir.isBlank() ? null : new ParseSummaryCache(Paths.get(dir));
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the cached summary for this content hash, or null on a miss or unreadable entry
+     */
+    public FileSummary load(String contentHash) {
+        Path entry = entryPath(contentHash);
+        if (!Files.isRegularFile(entry)) {
+            return null;
+        }
+        try (Reader reader = Files.newBufferedReader(entry, StandardCharsets.UTF_8)) {
+            FileSummary summary = gson.fromJson(reader, FileSummary.class);
+            if (summary == null || summary.version != FileSummary.FORMAT_VERSION
+                    || !contentHash.equals(summary.contentHash)) {
+                return null;
+            }
+            return summary;
+        } catch (IOException | JsonParseException e) {
+            log.info("Ignoring unreadable cache entry " + entry + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void store(FileSummary summary) {
+        Path entry = entryPath(summary.contentHash);
+        try {
+            Files.createDirectories(entry.getParent());
+            // Write to a temp file first so concurrent readers never see a partial entry
+            Path temp = Files.createTempFile(entry.getParent(), summary.contentHash, ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                gson.toJson(summary, writer);
+            }
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.info("Failed to write cache entry " + entry + ": " + e.getMessage());
+        }
+    }
+
+    private Path entryPath(String contentHash) {
+        return directory.resolve(contentHash.substring(0, 2)).resolve(contentHash + ".json");
+    }
+}
@@ -0,0 +1,112 @@
+package com.hack.parser.solver.enhanced;
+
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.resolution.TypeSolver;
+import com.github.javaparser.resolution.declarations.ResolvedReferenceTypeDeclaration;
+import com.github.javaparser.resolution.model.SymbolReference;
+import com.github.javaparser.symbolsolver.javaparsermodel.JavaParserFacade;
+
+import java.util.*;
+
+/**
+ * Type solver over CompilationUnits that a worker has already parsed. It sits ahead of the
+ * JavaParserTypeSolver, which would otherwise read and parse those files a second time (and keep
+ * the second copy in its own cache) whenever a type declared in them is looked up by name.
+ * <p>
+ * Only the most recently parsed units are kept, so that indexing never holds more than a bounded
+ * number of ASTs per worker. Files are parsed package by package, and those are the units that
+ * neighbouring files refer to most. Like the parser it belongs to, an instance is confined to one thread.
+ */
+public class ParsedTypeSolver implements TypeSolver {
+
+    /** Units kept per worker when no capacity is given */
+    public static final int DEFAULT_CAPACITY = 32;
+
+    private final Map<String, TypeDeclaration<?>> typesByName = new HashMap<>();
+    /** Resolved declarations are reused, since they cache their ancestors and members */
+    private final Map<String, SymbolReference<ResolvedReferenceTypeDeclaration>> solved = new HashMap<>();
+    private final LinkedHashMap<CompilationUnit, List<String>> units;
+    private TypeSolver parent;
+
+    public ParsedTypeSolver() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ParsedTypeSolver(int capacity) {
+        this.units = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CompilationUnit, List<String>> eldest) {
+                if (size() <= capacity) {
+                    return false;
+                }
+                for (String name : eldest.getValue()) {
+                    TypeDeclaration<?> type = typesByName.get(name);
+                    if (type != null && type.findCompilationUnit().orElse(null) == eldest.getKey()) {
+                        typesByName.remove(name);
+                        solved.remove(name);
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Make the types declared in a freshly parsed unit, including nested ones, solvable by name
+     */
+    public void register(CompilationUnit cu) {
+        List<String> names = new ArrayList<>();
+        for (TypeDeclaration<?> type : cu.findAll(TypeDeclaration.class)) {
+            // Local classes have no fully qualified name and cannot be referred to from elsewhere
+            type.getFullyQualifiedName().ifPresent(name -> {
+                typesByName.put(name, type);
+                solved.remove(name);
+                names.add(name);
+            });
+        }
+        units.put(cu, names);
+    }
+
+    public int size() {
+        return units.size();
+    }
+
+    /**
+     * Forget every registered unit, e.g. after files were edited on disk
+     */
+    public void clear() {
+        units.clear();
+        typesByName.clear();
+        solved.clear();
+    }
+
+    @Override
+    public TypeSolver getParent() {
+        return parent;
+    }
+
+    @Override
+    public void setParent(TypeSolver parent) {
+        Objects.requireNonNull(parent);
+        if (this.parent != null) {
+            throw new IllegalStateException("This TypeSolver already has a parent.");
+        }
+        if (parent == this) {
+            throw new IllegalStateException("The parent of this TypeSolver cannot be itself.");
+        }
+        this.parent = parent;
+    }
+
+    @Override
+    public SymbolReference<ResolvedReferenceTypeDeclaration> tryToSolveType(String name) {
+        TypeDeclaration<?> type = typesByName.get(name);
+        if (type == null) {
+            return SymbolReference.unsolved();
+        }
+        // Units that keep being referred to stay registered
+        type.findCompilationUnit().ifPresent(units::get);
+        return solved.computeIfAbsent(name,
+                k -> SymbolReference.solved(JavaParserFacade.get(getRoot()).getTypeDeclaration(type)));
+    }
+}
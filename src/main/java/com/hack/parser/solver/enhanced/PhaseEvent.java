@@ -0,0 +1,41 @@
+package com.hack.parser.solver.enhanced;
+
+import jdk.jfr.*;
+
+/**
+ * JFR event for one finished {@link PhaseProfiler.Phase}. Its duration is the wall time of the
+ * phase including nested phases; CPU time and allocations exclude them.
+ */
+@Name("com.hack.parser.Phase")
+@Label("Analysis Phase")
+@Category("Java Code Parser")
+@Description("One phase of indexing or answering a caller chain query")
+@StackTrace(false)
+class PhaseEvent extends Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("CPU Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long cpuTime;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+
+    @Label("Files")
+    long files;
+
+    @Label("Resolved Calls")
+    long resolvedCalls;
+
+    @Label("Unresolved Calls")
+    long unresolvedCalls;
+
+    @Label("Nodes")
+    long nodes;
+
+    @Label("Edges")
+    long edges;
+}
@@ -0,0 +1,261 @@
+package com.hack.parser.solver.enhanced;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wall time, CPU time and allocated bytes per phase of the analysis, with counts such as files
+ * parsed or call graph edges. Totals are kept per phase name for the life of the process, so a
+ * server accumulates them over all its queries. Each finished phase is also committed as a
+ * {@link PhaseEvent} to any running JFR recording.
+ * <p>
+ * Phases nest, and the values of a phase exclude those of the phases opened inside it, so the
+ * phases of a run add up to its total. CPU time and allocations of worker threads are added to
+ * the phase that started the work, see {@link Phase#addWorkerUsage}.
+ */
+@Slf4j
+public final class PhaseProfiler {
+
+    /** System property with the path of the JSON report written when a run ends */
+    public static final String PROFILE_PROPERTY = "parser.profile";
+
+    public static final String PARSE = "parse";
+    public static final String METADATA = "metadata";
+    public static final String INTERFACE_MAPPING = "interfaceMapping";
+    public static final String CALL_GRAPH = "callGraph";
+    public static final String PATCH = "patch";
+    public static final String CALL_TREE = "callTree";
+    public static final String METHOD_DETAILS = "methodDetails";
+    public static final String OUTPUT = "output";
+
+    public static final String FILES = "files";
+    public static final String RESOLVED_CALLS = "resolvedCalls";
+    public static final String UNRESOLVED_CALLS = "unresolvedCalls";
+    public static final String NODES = "nodes";
+    public static final String EDGES = "edges";
+    public static final String METHODS = "methods";
+
+    private static final PhaseProfiler GLOBAL = new PhaseProfiler();
+    private static final ThreadLocal<Phase> CURRENT = new ThreadLocal<>();
+    private static final ThreadMXBean THREADS = threadBean();
+
+    /** Phase name -> totals, in the order the phases first ran */
+    private final Map<String, Totals> totals = new LinkedHashMap<>();
+
+    public static PhaseProfiler global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Open a phase on the current thread of the process-wide profiler; close it when it ends
+     */
+    public static Phase start(String name) {
+        return GLOBAL.open(name);
+    }
+
+    /**
+     * The innermost phase open on the current thread, or null
+     */
+    public static Phase current() {
+        return CURRENT.get();
+    }
+
+    public Phase open(String name) {
+        Phase phase = new Phase(this, name, CURRENT.get());
+        CURRENT.set(phase);
+        return phase;
+    }
+
+    /**
+     * Totals per phase: count, wallNanos, cpuNanos, allocatedBytes and counters
+     */
+    public synchronized List<Map<String, Object>> report() {
+        List<Map<String, Object>> phases = new ArrayList<>();
+        totals.forEach((name, phase) -> {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("phase", name);
+            entry.put("count", phase.count);
+            entry.put("wallNanos", phase.wallNanos);
+            entry.put("cpuNanos", phase.cpuNanos);
+            entry.put("allocatedBytes", phase.allocatedBytes);
+            entry.put("counters", new TreeMap<>(phase.counters));
+            phases.add(entry);
+        });
+        return phases;
+    }
+
+    public synchronized void reset() {
+        totals.clear();
+    }
+
+    /**
+     * Write the report of the process-wide profiler to the file named by -Dparser.profile, if set
+     */
+    public static void writeReportIfRequested() {
+        String file = System.getProperty(PROFILE_PROPERTY);
+        if (file == null || file.isBlank()) {
+            return;
+        }
+        Path path = Paths.get(file.trim());
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            gson.toJson(Collections.singletonMap("phases", GLOBAL.report()), out);
+            log.info("Wrote phase report to " + path);
+        } catch (IOException e) {
+            log.info("Failed to write phase report to " + path + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized void add(Phase phase, long wallNanos, long cpuNanos, long allocatedBytes) {
+        Totals phaseTotals = totals.computeIfAbsent(phase.name, name -> new Totals());
+        phaseTotals.count++;
+        phaseTotals.wallNanos += wallNanos;
+        phaseTotals.cpuNanos += cpuNanos;
+        phaseTotals.allocatedBytes += allocatedBytes;
+        phase.counters.forEach((counter, value) -> phaseTotals.counters.merge(counter, value.sum(), Long::sum));
+    }
+
+    private static ThreadMXBean threadBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean.isThreadCpuTimeSupported() && !bean.isThreadCpuTimeEnabled()) {
+            bean.setThreadCpuTimeEnabled(true);
+        }
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) bean;
+            if (allocations.isThreadAllocatedMemorySupported() && !allocations.isThreadAllocatedMemoryEnabled()) {
+                allocations.setThreadAllocatedMemoryEnabled(true);
+            }
+        }
+        return bean;
+    }
+
+    /**
+     * CPU time of the current thread in nanoseconds, 0 if the JVM does not measure it
+     */
+    static long threadCpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    /**
+     * Bytes allocated by the current thread so far, 0 if the JVM does not measure it
+     */
+    static long threadAllocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            long bytes = ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+            return Math.max(bytes, 0);
+        }
+        return 0;
+    }
+
+    private static class Totals {
+        long count;
+        long wallNanos;
+        long cpuNanos;
+        long allocatedBytes;
+        final Map<String, Long> counters = new HashMap<>();
+    }
+
+    /**
+     * CPU time and allocations of a thread at one point, to measure work done on a worker thread
+     */
+    public static final class Usage {
+        final long cpuNanos = threadCpuTime();
+        final long allocatedBytes = threadAllocatedBytes();
+    }
+
+    /**
+     * One run of a phase on the thread that opened it
+     */
+    public static final class Phase implements AutoCloseable {
+        private final PhaseProfiler profiler;
+        private final String name;
+        private final Phase parent;
+        private final PhaseEvent event = new PhaseEvent();
+        private final long startWall = System.nanoTime();
+        private final Usage start = new Usage();
+        private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+        private final LongAdder workerCpuNanos = new LongAdder();
+        private final LongAdder workerAllocatedBytes = new LongAdder();
+        /** Totals of the phases nested in this one, which are not counted again here */
+        private long nestedWall;
+        private long nestedCpu;
+        private long nestedAllocated;
+        private boolean closed;
+
+        private Phase(PhaseProfiler profiler, String name, Phase parent) {
+            this.profiler = profiler;
+            this.name = name;
+            this.parent = parent;
+            event.begin();
+        }
+
+        /**
+         * Add to a counter of this phase; safe to call from worker threads
+         */
+        public void count(String counter, long amount) {
+            counters.computeIfAbsent(counter, c -> new LongAdder()).add(amount);
+        }
+
+        /**
+         * Add what the current worker thread used since {@code since} to this phase
+         */
+        public void addWorkerUsage(Usage since) {
+            Usage now = new Usage();
+            workerCpuNanos.add(now.cpuNanos - since.cpuNanos);
+            workerAllocatedBytes.add(now.allocatedBytes - since.allocatedBytes);
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            Usage end = new Usage();
+            long wall = System.nanoTime() - startWall;
+            long cpu = end.cpuNanos - start.cpuNanos;
+            long allocated = end.allocatedBytes - start.allocatedBytes;
+            if (parent != null) {
+                parent.nestedWall += wall;
+                parent.nestedCpu += cpu;
+                parent.nestedAllocated += allocated;
+            }
+            CURRENT.set(parent);
+
+            long selfCpu = cpu - nestedCpu + workerCpuNanos.sum();
+            long selfAllocated = allocated - nestedAllocated + workerAllocatedBytes.sum();
+            profiler.add(this, wall - nestedWall, selfCpu, selfAllocated);
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.phase = name;
+                event.cpuTime = selfCpu;
+                event.allocated = selfAllocated;
+                event.files = counter(FILES);
+                event.resolvedCalls = counter(RESOLVED_CALLS);
+                event.unresolvedCalls = counter(UNRESOLVED_CALLS);
+                event.nodes = counter(NODES);
+                event.edges = counter(EDGES);
+                event.commit();
+            }
+        }
+
+        private long counter(String counter) {
+            LongAdder value = counters.get(counter);
+            return value == null ? 0 : value.sum();
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.hack.parser.solver.enhanced;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+
+/**
+ * Caller chain results of recent queries, so a target that is asked for again is answered without
+ * building its tree and reading its method bodies again. Entries are weighed by an estimate of the
+ * bytes they hold, and the least recently used ones are evicted once the total exceeds the limit.
+ * <p>
+ * A result only depends on the methods from which its target can be reached, whether they ended up
+ * in the tree or not: their lines, bodies, callers and callees, which of them are entry points, and
+ * the order those are tried in. When the index is patched, {@link #invalidate} drops the results for
+ * which one of those changed, and keeps every other result.
+ */
+@Slf4j
+public final class QueryResultCache {
+
+    /** System property with the size limit in megabytes of the cache in server mode, 0 to turn it off */
+    public static final String SIZE_PROPERTY = "parser.queryCacheMb";
+
+    private static final long DEFAULT_SIZE_MB = 64;
+
+    private final long maxWeight;
+    /** In access order, least recently used first */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /** Index of the last invalidation; results are only stored for and served to queries on it */
+    private WorkspaceIndex latest;
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * @param maxWeight limit of the estimated size of all entries in bytes
+     */
+    public QueryResultCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Cache sized through -Dparser.queryCacheMb, 64 MB when it is not set, or null if it is 0
+     */
+    public static QueryResultCache fromSystemProperty() {
+        long megabytes = Long.getLong(SIZE_PROPERTY, DEFAULT_SIZE_MB);
+        return megabytes <= 0 ? null : new QueryResultCache(megabytes * 1024 * 1024);
+    }
+
+    /**
+     * The cached result for a target in the index, or null if there is none or the index was patched since
+     */
+    synchronized CallerChains get(WorkspaceIndex index, String signature) {
+        Entry entry = latest != null && index != latest ? null : entries.get(new Key(signature, index.packagePrefix));
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.chains;
+    }
+
+    /**
+     * Store a result computed from the index, unless the index was patched since
+     */
+    synchronized void put(WorkspaceIndex index, CallerChains chains) {
+        if (latest != null && index != latest) {
+            return;
+        }
+        Key key = new Key(chains.getTarget(), index.packagePrefix);
+        Entry entry = new Entry(key, chains);
+        if (entry.weight > maxWeight) {
+            return;
+        }
+        remove(key);
+        entries.put(key, entry);
+        weight += entry.weight;
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (weight > maxWeight && eldest.hasNext()) {
+            Entry evicted = eldest.next();
+            eldest.remove();
+            weight -= evicted.weight;
+            evictions++;
+        }
+    }
+
+    /**
+     * Drop the results that an index update changed
+     *
+     * @param current snapshot patched from previous, e.g. by {@link WorkspaceWatcher}
+     */
+    public synchronized void invalidate(WorkspaceIndex previous, WorkspaceIndex current) {
+        latest = current;
+        BitSet changed = current.methodsChangedSince(previous);
+        if (changed.isEmpty() || entries.isEmpty()) {
+            return;
+        }
+
+        // Ids are kept by patches, and a method that starts or stops being an entry point counts as
+        // changed, so this also catches new callers and entry points of methods outside the tree
+        Set<Key> stale = new HashSet<>();
+        for (Entry entry : entries.values()) {
+            // Entry points are tried by rank, and adding or removing others can reorder them
+            if (changed.intersects(entry.chains.reaching) || !entryPointsInOrder(entry, current)) {
+                stale.add(entry.key);
+            }
+        }
+        for (Key key : stale) {
+            remove(key);
+            invalidations++;
+        }
+        log.info("Query cache: " + stale.size() + " result(s) invalidated by " + changed.cardinality()
+                + " changed method(s), " + entries.size() + " kept");
+    }
+
+    private static boolean entryPointsInOrder(Entry entry, WorkspaceIndex index) {
+        int previousRank = -1;
+        for (MethodCallFinder.CallTreeNode entryNode : entry.chains.rootNode.children) {
+            int id = index.signatures.id(entryNode.method);
+            int rank = id < 0 ? -1 : index.entryPointRank[id];
+            // A result without entry points took the first caller that reaches the target
+            if (rank <= previousRank) {
+                return false;
+            }
+            previousRank = rank;
+        }
+        return true;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    private void remove(Key key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            weight -= entry.weight;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Estimated size of all entries in bytes
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized double getHitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidationCount() {
+        return invalidations;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ROOT, "%d result(s), %d of %d bytes, %d hit(s), %d miss(es), hit rate %.1f%%, "
+                        + "%d eviction(s), %d invalidation(s)", entries.size(), weight, maxWeight, hits, misses,
+                getHitRate() * 100, evictions, invalidations);
+    }
+
+    /**
+     * Results are cached before they are written, so the layout and other output settings are
+     * not part of the key
+     */
+    private static final class Key {
+        final String signature;
+        final String packagePrefix;
+
+        Key(String signature, String packagePrefix) {
+            this.signature = signature;
+            this.packagePrefix = packagePrefix;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return signature.equals(other.signature) && Objects.equals(packagePrefix, other.packagePrefix);
+        }
+
+        @Override
+        public int hashCode() {
+            return signature.hashCode() * 31 + Objects.hashCode(packagePrefix);
+        }
+    }
+
+    private static final class Entry {
+        final Key key;
+        final CallerChains chains;
+        final long weight;
+
+        Entry(Key key, CallerChains chains) {
+            this.key = key;
+            this.chains = chains;
+            this.weight = weigh(chains);
+        }
+
+        /**
+         * Object headers, references and string contents; signatures are shared with the index
+         */
+        private static long weigh(CallerChains chains) {
+            long weight = 64 + chains.reaching.size() / 8;
+            Set<MethodCallFinder.CallTreeNode> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            Deque<MethodCallFinder.CallTreeNode> pending = new ArrayDeque<>();
+            pending.push(chains.rootNode);
+            while (!pending.isEmpty()) {
+                MethodCallFinder.CallTreeNode node = pending.pop();
+                if (seen.add(node)) {
+                    weight += 64 + 8L * node.children.size();
+                    node.children.forEach(pending::push);
+                }
+            }
+            for (MethodCallFinder.MethodDetails details : chains.getMethods()) {
+                weight += 48 + 2L * (length(details.name) + length(details.body) + length(details.comments));
+            }
+            return weight;
+        }
+
+        private static int length(String value) {
+            return value == null ? 0 : value.length();
+        }
+    }
+}
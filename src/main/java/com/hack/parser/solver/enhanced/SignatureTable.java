@@ -0,0 +1,119 @@
+package com.hack.parser.solver.enhanced;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Interns strings such as method signatures and file paths to dense int ids (0, 1, 2, ...), so that
+ * graphs and lookup tables can be stored in primitive arrays indexed by id. Each distinct string is
+ * held once. Lookups use an open-addressing table, so neither direction boxes an Integer.
+ * <p>
+ * A table is only appended to while an index is being built; a published {@link WorkspaceIndex}
+ * never modifies its table, and {@link #copy()} is used to extend it for a new snapshot.
+ */
+public final class SignatureTable {
+
+    private String[] names;
+    private int size;
+    /** Open-addressing slots holding id + 1, 0 for an empty slot */
+    private int[] slots;
+
+    public SignatureTable() {
+        this(16);
+    }
+
+    private SignatureTable(int expectedSize) {
+        this.names = new String[Math.max(expectedSize, 16)];
+        this.slots = new int[tableSizeFor(names.length * 2)];
+    }
+
+    /**
+     * A table with the same ids that can be extended without affecting this one
+     */
+    public SignatureTable copy() {
+        SignatureTable copy = new SignatureTable(0);
+        copy.names = Arrays.copyOf(names, names.length);
+        copy.size = size;
+        copy.slots = slots.clone();
+        return copy;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the id of the string, assigning the next free id if it is new
+     */
+    public int intern(String name) {
+        int slot = slotOf(name);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+        }
+        int id = size++;
+        names[id] = name;
+        slots[slot] = id + 1;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * @return the id of the string, or -1 if it was never interned
+     */
+    public int id(String name) {
+        return slots[slotOf(name)] - 1;
+    }
+
+    /**
+     * The interned instance, which callers can use in place of an equal copy
+     */
+    public String canonical(String name) {
+        int id = intern(name);
+        return names[id];
+    }
+
+    public String name(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("No id " + id + " in a table of " + size);
+        }
+        return names[id];
+    }
+
+    private int slotOf(String name) {
+        int mask = slots.length - 1;
+        int slot = mix(name.hashCode()) & mask;
+        while (slots[slot] != 0 && !names[slots[slot] - 1].equals(name)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        int[] newSlots = new int[slots.length * 2];
+        int mask = newSlots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(names[id].hashCode()) & mask;
+            while (newSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newSlots[slot] = id + 1;
+        }
+        slots = newSlots;
+    }
+
+    /** Spreads the bits of String.hashCode, which clusters badly for similar strings */
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int tableSizeFor(int capacity) {
+        return Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+    }
+}
@@ -0,0 +1,117 @@
+package com.hack.parser.solver.enhanced;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a source file from disk exactly once and decodes it as UTF-8.
+ * Small files go through a per-thread direct buffer that is reused between reads,
+ * large files are memory-mapped instead of being copied onto the heap first.
+ */
+public final class SourceFileLoader {
+
+    /** Files at or above this size are memory-mapped */
+    static final int MAP_THRESHOLD = 1 << 20;
+
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(64 * 1024));
+
+    private SourceFileLoader() {
+    }
+
+    public static String read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large to load: " + file);
+            }
+
+            ByteBuffer bytes;
+            if (size >= MAP_THRESHOLD) {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                bytes = readFully(channel, (int) size);
+            }
+            return decode(bytes);
+        }
+    }
+
+    /**
+     * The first {@code maxBytes} bytes of a file, or all of it when it is not longer. A character cut
+     * off at the end decodes to U+FFFD.
+     */
+    static Head readHead(Path file, int maxBytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= maxBytes) {
+                return new Head(decode(readFully(channel, (int) size)), true);
+            }
+            ByteBuffer buffer = READ_BUFFER.get();
+            if (buffer.capacity() < maxBytes) {
+                buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(maxBytes) << 1);
+                READ_BUFFER.set(buffer);
+            }
+            buffer.clear().limit(maxBytes);
+            // The file can shrink underneath us, so stop at EOF as well
+            int read;
+            do {
+                read = channel.read(buffer);
+            } while (read > 0 && buffer.hasRemaining());
+            buffer.flip();
+            return new Head(decode(buffer), false);
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, int size) throws IOException {
+        ByteBuffer buffer = READ_BUFFER.get();
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(size) << 1);
+            READ_BUFFER.set(buffer);
+        }
+        buffer.clear();
+
+        // The size can change underneath us, so read until EOF rather than trusting it
+        while (channel.read(buffer) > 0) {
+            if (!buffer.hasRemaining()) {
+                ByteBuffer larger = ByteBuffer.allocateDirect(buffer.capacity() << 1);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+                READ_BUFFER.set(buffer);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String decode(ByteBuffer bytes) throws CharacterCodingException {
+        // Same replacement behaviour as new String(bytes, UTF_8)
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = decoder.decode(bytes);
+        return chars.toString();
+    }
+
+    /**
+     * Text from the start of a file
+     */
+    static final class Head {
+        final String text;
+        /** Whether the text is the whole file */
+        final boolean complete;
+
+        Head(String text, boolean complete) {
+            this.text = text;
+            this.complete = complete;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.hack.parser.solver.enhanced;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Builds a {@link FileSummary} for every Java file under a source root. Files are parsed in parallel,
+ * and when a {@link ParseSummaryCache} is configured, files whose content hash is already cached are
+ * not parsed at all. A cached entry is only trusted if the declarations of the types and packages it
+ * was resolved against are unchanged; otherwise the file is parsed again.
+ * Neither file content nor CompilationUnits are kept once a file has been summarized.
+ */
+@Slf4j
+public class SourceIndexer {
+
+    private final Path sourceRoot;
+    private final String packagePrefix;
+    private final int parallelism;
+    private final ParseSummaryCache cache;
+    private final CallResolutionCache resolutionCache;
+
+    /**
+     * @param cache summary cache, or null to parse every file
+     */
+    public SourceIndexer(Path sourceRoot, String packagePrefix, int parallelism, ParseSummaryCache cache) {
+        this(sourceRoot, packagePrefix, parallelism, cache, null);
+    }
+
+    /**
+     * @param resolutionCache call-site resolutions reused by files that have to be parsed, or null
+     */
+    public SourceIndexer(Path sourceRoot, String packagePrefix, int parallelism, ParseSummaryCache cache,
+                         CallResolutionCache resolutionCache) {
+        this.sourceRoot = sourceRoot;
+        this.packagePrefix = packagePrefix;
+        this.parallelism = parallelism;
+        this.cache = cache;
+        this.resolutionCache = resolutionCache;
+    }
+
+    public IndexedSources index() throws IOException {
+        try (ParallelSourceParser parser = new ParallelSourceParser(sourceRoot, parallelism)) {
+            return index(parser);
+        }
+    }
+
+    /**
+     * Index on the workers of a parser the caller keeps, e.g. to parse changes on the same workers later
+     */
+    IndexedSources index(ParallelSourceParser parser) throws IOException {
+        IndexedSources sources = new IndexedSources(sourceRoot);
+        // Only files inside the package prefix are parsed; the rest are resolved lazily by the type solver
+        List<Path> allFiles = parser.listJavaFiles();
+        Map<Path, String> contents = new PackagePrefixFilter(packagePrefix).select(parser, allFiles);
+        List<Path> javaFiles = new ArrayList<>(contents.keySet());
+        long resolutionHits = resolutionCache == null ? 0 : resolutionCache.getHits();
+        long resolutionMisses = resolutionCache == null ? 0 : resolutionCache.getMisses();
+
+        if (cache == null && resolutionCache == null) {
+            parseAndSummarize(parser, javaFiles, contents, sources);
+            log.info("Indexed " + sources.summaries.size() + " of " + javaFiles.size()
+                    + " files using " + parallelism + " thread(s)");
+            return sources;
+        }
+
+        Set<String> cachedPaths = new HashSet<>();
+        if (cache == null) {
+            parseAndSummarize(parser, javaFiles, contents, sources);
+        } else {
+            List<Path> toParse = new ArrayList<>();
+            for (Iterator<Map.Entry<Path, String>> it = contents.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Path, String> entry = it.next();
+                String path = entry.getKey().toString();
+
+                FileSummary cached = cache.load(ContentHash.of(entry.getValue()));
+                if (cached != null && (cached.callsResolved || !cached.isInPackage(packagePrefix))) {
+                    cached.path = path;
+                    sources.summaries.put(path, cached);
+                    cachedPaths.add(path);
+                    // Cache hits are not parsed, so their content is not needed any more
+                    it.remove();
+                } else {
+                    toParse.add(entry.getKey());
+                }
+            }
+            parseAndSummarize(parser, toParse, contents, sources);
+        }
+        int hits = cachedPaths.size();
+
+        // Summaries from the cache and files whose calls were taken from the resolution cache
+        // were resolved against older declarations
+        Set<String> reusedPaths = new HashSet<>(cachedPaths);
+        for (FileSummary summary : sources.summaries.values()) {
+            if (summary.reusedResolutions) {
+                reusedPaths.add(summary.path);
+            }
+        }
+
+        // Re-parse those whose dependencies changed, until every reused entry is consistent
+        DeclarationFingerprints fingerprints = new DeclarationFingerprints(sources.summaries.values(), sourceRoot);
+        List<Path> stale = findStale(reusedPaths, sources, fingerprints);
+        while (!stale.isEmpty()) {
+            log.info("Re-parsing " + stale.size() + " cached file(s) with changed dependencies");
+            for (Path path : stale) {
+                reusedPaths.remove(path.toString());
+                cachedPaths.remove(path.toString());
+                if (resolutionCache != null) {
+                    resolutionCache.invalidate(sources.summaries.get(path.toString()).contentHash);
+                }
+            }
+            parseAndSummarize(parser, stale, Collections.emptyMap(), sources);
+            fingerprints = new DeclarationFingerprints(sources.summaries.values(), sourceRoot);
+            stale = findStale(reusedPaths, sources, fingerprints);
+        }
+
+        for (FileSummary summary : sources.summaries.values()) {
+            if (!cachedPaths.contains(summary.path)) {
+                summary.dependencyFingerprints = fingerprints.forDependencies(summary);
+                if (cache != null) {
+                    cache.store(summary);
+                }
+                if (resolutionCache != null && summary.callsResolved) {
+                    resolutionCache.commit(summary.contentHash, summary.dependencyFingerprints);
+                }
+            }
+        }
+
+        sources.cacheHits = cachedPaths.size();
+        if (cache != null) {
+            log.info("Indexed " + sources.summaries.size() + " of " + javaFiles.size() + " files: "
+                    + sources.cacheHits + " from cache (" + (hits - sources.cacheHits) + " invalidated), "
+                    + (sources.summaries.size() - sources.cacheHits) + " parsed using " + parallelism + " thread(s)");
+        } else {
+            log.info("Indexed " + sources.summaries.size() + " of " + javaFiles.size()
+                    + " files using " + parallelism + " thread(s)");
+        }
+        if (resolutionCache != null) {
+            List<String> indexedHashes = new ArrayList<>();
+            for (FileSummary summary : sources.summaries.values()) {
+                indexedHashes.add(summary.contentHash);
+            }
+            resolutionCache.retainOnly(indexedHashes);
+            log.info("Call-site resolution cache: " + (resolutionCache.getHits() - resolutionHits) + " hit(s), "
+                    + (resolutionCache.getMisses() - resolutionMisses) + " miss(es)");
+        }
+        return sources;
+    }
+
+    private void parseAndSummarize(ParallelSourceParser parser, List<Path> javaFiles,
+                                   Map<Path, String> knownContent, IndexedSources sources) throws IOException {
+        parseAndSummarize(parser, new SummaryExtractor(packagePrefix, resolutionCache), javaFiles, knownContent,
+                sources);
+    }
+
+    /**
+     * Parse the files and add their summaries to {@code sources}. The CompilationUnit and content
+     * of each file are dropped on the worker as soon as its summary is extracted. Files with
+     * syntax errors get no summary.
+     */
+    static void parseAndSummarize(ParallelSourceParser parser, SummaryExtractor extractor,
+                                  List<Path> javaFiles, Map<Path, String> knownContent,
+                                  IndexedSources sources) throws IOException {
+        try (PhaseProfiler.Phase phase = PhaseProfiler.start(PhaseProfiler.PARSE)) {
+            long resolved = extractor.resolvedCalls.sum();
+            long unresolved = extractor.unresolvedCalls.sum();
+            // The content hash lets readers check that offsets still match the file on disk
+            List<FileSummary> parsed = parser.parseFiles(javaFiles, knownContent, (javaFile, content, cu) ->
+                    cu == null ? null : extractor.extract(javaFile.toString(), ContentHash.of(content), content, cu));
+
+            int files = 0;
+            for (int i = 0; i < javaFiles.size(); i++) {
+                FileSummary summary = parsed.get(i);
+                if (summary != null) {
+                    sources.summaries.put(javaFiles.get(i).toString(), summary);
+                    files++;
+                }
+            }
+            phase.count(PhaseProfiler.FILES, files);
+            phase.count(PhaseProfiler.RESOLVED_CALLS, extractor.resolvedCalls.sum() - resolved);
+            phase.count(PhaseProfiler.UNRESOLVED_CALLS, extractor.unresolvedCalls.sum() - unresolved);
+        }
+    }
+
+    private List<Path> findStale(Set<String> reusedPaths, IndexedSources sources, DeclarationFingerprints fingerprints) {
+        List<Path> stale = new ArrayList<>();
+        for (String path : reusedPaths) {
+            FileSummary summary = sources.summaries.get(path);
+            if (!fingerprints.forDependencies(summary).equals(summary.dependencyFingerprints)) {
+                stale.add(Paths.get(path));
+            }
+        }
+        return stale;
+    }
+
+    /**
+     * Result of indexing a source root: a summary per parseable file, keyed by file path.
+     * No CompilationUnits are held; a file is parsed again from disk only when a method
+     * declaration in it is actually needed.
+     */
+    public static class IndexedSources {
+        final Path sourceRoot;
+        final Map<String, FileSummary> summaries = new HashMap<>();
+        int cacheHits;
+
+        IndexedSources(Path sourceRoot) {
+            this.sourceRoot = sourceRoot;
+        }
+
+        public Path getSourceRoot() {
+            return sourceRoot;
+        }
+
+        public Map<String, FileSummary> getSummaries() {
+            return summaries;
+        }
+
+        public int getCacheHits() {
+            return cacheHits;
+        }
+
+        /**
+         * Parse an indexed file again from disk with the caller's parser, or null if it is gone,
+         * changed or unparseable. Nothing is kept, so the caller decides how long the AST lives.
+         */
+        public CompilationUnit getCompilationUnit(String path, JavaParser parser) {
+            FileSummary summary = summaries.get(path);
+            String content = summary == null ? null : summary.readSource();
+            if (content == null) {
+                return null;
+            }
+            return ParallelSourceParser.parse(Paths.get(path), content, parser);
+        }
+    }
+
+    public static String signatureOf(MethodDeclaration method) {
+        try {
+            return method.resolve().getQualifiedSignature();
+        } catch (Exception e) {
+            // Fallback to simple signature
+            return method.getDeclarationAsString(false, false, false);
+        }
+    }
+}
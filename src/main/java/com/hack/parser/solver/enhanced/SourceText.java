@@ -0,0 +1,55 @@
+package com.hack.parser.solver.enhanced;
+
+import java.util.Arrays;
+
+/**
+ * Content of a source file with the start offset of every line, computed once when the file is
+ * loaded, so any number of methods can be cut out of it without scanning the content again.
+ * <p>
+ * Lines end at '\n' only, like the {@code split("\n")} the method bodies used to be rebuilt from:
+ * a '\r' before the '\n' stays part of its line.
+ */
+final class SourceText {
+
+    private final String content;
+    private final int[] lineStarts;
+
+    SourceText(String content) {
+        this.content = content;
+        int[] starts = new int[64];
+        int lines = 1;
+        for (int i = content.indexOf('\n'); i >= 0; i = content.indexOf('\n', i + 1)) {
+            if (lines == starts.length) {
+                starts = Arrays.copyOf(starts, lines * 2);
+            }
+            starts[lines++] = i + 1;
+        }
+        this.lineStarts = Arrays.copyOf(starts, lines);
+    }
+
+    int length() {
+        return content.length();
+    }
+
+    String substring(int begin, int end) {
+        return content.substring(begin, end);
+    }
+
+    /**
+     * The range widened to whole lines: from the start of the line holding {@code begin} to the end
+     * of the line holding {@code end - 1}, without its '\n'
+     */
+    String wholeLines(int begin, int end) {
+        int last = lineOf(end - 1);
+        int to = last + 1 < lineStarts.length ? lineStarts[last + 1] - 1 : content.length();
+        return content.substring(lineStarts[lineOf(begin)], to);
+    }
+
+    /**
+     * Zero-based line holding the offset
+     */
+    private int lineOf(int offset) {
+        int index = Arrays.binarySearch(lineStarts, offset);
+        return index >= 0 ? index : -index - 2;
+    }
+}
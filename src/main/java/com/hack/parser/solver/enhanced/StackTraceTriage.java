@@ -0,0 +1,189 @@
+package com.hack.parser.solver.enhanced;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonParseException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Answers "how do we get here" for a batch of Java stack traces against one index. Traces are read
+ * from a log file or an NDJSON stream, reduced to their top frame, and each unique top frame gets
+ * one result with the caller tree of the method it points at. Frames that resolve to the same
+ * method share one tree.
+ * <p>
+ * The top frame of a trace is its first frame that falls in an indexed class, so JDK and library
+ * frames above the application code are skipped. Only the frames before the first "Caused by:" are
+ * looked at.
+ */
+@Slf4j
+public class StackTraceTriage {
+
+    /** "at [module/]package.Class.method(File.java:123)" */
+    private static final Pattern FRAME = Pattern.compile(
+            "^\\s*at\\s+(?:[\\w.$-]+(?:@[^/]*)?/)*([\\w$.]+)\\.([\\w$<>]+)\\([^:)]*:(\\d{1,9})\\)");
+
+    private final MethodCallFinder finder;
+    private final WorkspaceIndex index;
+    /** Top frame -> result, in the order the frames were first seen */
+    private final Map<String, FrameResult> results = new LinkedHashMap<>();
+    private int traceCount;
+    private List<String[]> currentTrace;
+    private boolean currentTraceEnded;
+
+    public StackTraceTriage(MethodCallFinder finder, WorkspaceIndex index) {
+        this.finder = finder;
+        this.index = index;
+    }
+
+    /**
+     * Read all traces, then write one JSON object per line for every unique top frame
+     *
+     * @return number of traces read
+     */
+    public int run(BufferedReader in, Writer out) throws IOException {
+        long start = System.nanoTime();
+        String line;
+        while ((line = in.readLine()) != null) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("{")) {
+                // An NDJSON record holds its own traces, e.g. in a "stack_trace" field
+                endTrace();
+                readRecord(trimmed);
+                endTrace();
+            } else {
+                readLine(line);
+            }
+        }
+        endTrace();
+
+        Map<Integer, MethodCallFinder.CallTreeNode> trees = new HashMap<>();
+        int unmapped = 0;
+        PhaseProfiler.Phase phase = PhaseProfiler.start(PhaseProfiler.OUTPUT);
+        try {
+            for (FrameResult result : results.values()) {
+                JsonResultWriter writer = new JsonResultWriter(out, true);
+                writer.writeProperty("frame", result.frame);
+                writer.writeProperty("occurrences", result.occurrences);
+                if (result.target < 0) {
+                    unmapped++;
+                    writer.writeProperty("error", "No indexed method at any frame of the trace");
+                } else {
+                    writer.writeProperty("signature", index.signatures.name(result.target));
+                    // Frames resolving to the same method share the tree
+                    MethodCallFinder.CallTreeNode rootNode = trees.computeIfAbsent(result.target,
+                            target -> finder.buildCallTree(index, target));
+                    finder.writeResult(index, rootNode, writer);
+                }
+                writer.finish();
+                out.write('\n');
+            }
+            out.flush();
+        } finally {
+            phase.close();
+        }
+
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        log.info("Triaged " + traceCount + " trace(s): " + results.size() + " unique top frame(s), "
+                + trees.size() + " caller tree(s), " + unmapped + " without an indexed frame, in "
+                + String.format(Locale.ROOT, "%.1f ms (%.1f traces/s)", seconds * 1000, traceCount / seconds));
+        return traceCount;
+    }
+
+    private void readRecord(String record) {
+        try {
+            readJson(JsonParser.parseString(record));
+        } catch (JsonParseException e) {
+            // Not JSON after all, e.g. a log message that starts with a brace
+            readLine(record);
+        }
+    }
+
+    private void readJson(JsonElement element) {
+        if (element.isJsonObject()) {
+            element.getAsJsonObject().entrySet().forEach(entry -> readJson(entry.getValue()));
+        } else if (element.isJsonArray()) {
+            element.getAsJsonArray().forEach(this::readJson);
+        } else if (element.isJsonPrimitive() && element.getAsJsonPrimitive().isString()) {
+            for (String line : element.getAsString().split("\\r?\\n")) {
+                readLine(line);
+            }
+            endTrace();
+        }
+    }
+
+    /**
+     * A trace is a run of frames, with the lines that may follow them ("Caused by:", "Suppressed:",
+     * "... 12 more"). Any other line ends it.
+     */
+    private void readLine(String line) {
+        Matcher frame = FRAME.matcher(line);
+        if (frame.find()) {
+            if (currentTrace == null) {
+                currentTrace = new ArrayList<>();
+                currentTraceEnded = false;
+            }
+            if (!currentTraceEnded) {
+                currentTrace.add(new String[]{frame.group(1), frame.group(2), frame.group(3)});
+            }
+            return;
+        }
+        String trimmed = line.trim();
+        if (currentTrace != null && (trimmed.startsWith("Caused by:") || trimmed.startsWith("Suppressed:")
+                || trimmed.startsWith("..."))) {
+            currentTraceEnded = true;
+            return;
+        }
+        endTrace();
+    }
+
+    private void endTrace() {
+        if (currentTrace == null) {
+            return;
+        }
+        traceCount++;
+        String[] top = currentTrace.get(0);
+        int target = -1;
+        for (String[] frame : currentTrace) {
+            target = targetOf(frame);
+            if (target >= 0) {
+                top = frame;
+                break;
+            }
+        }
+        String key = top[0] + "." + top[1] + ":" + top[2];
+        FrameResult result = results.get(key);
+        if (result == null) {
+            result = new FrameResult(key, target);
+            results.put(key, result);
+        }
+        result.occurrences++;
+        currentTrace = null;
+    }
+
+    /**
+     * Id of the method whose calls include the frame's line, -1 if it is not in an indexed class
+     */
+    private int targetOf(String[] frame) {
+        WorkspaceIndex.CallableLocation location = index.findCallable(frame[0], Integer.parseInt(frame[2]));
+        FileSummary.MethodSummary method = location == null ? null : location.getMethod();
+        return method == null ? -1 : index.signatures.id(method.getSignature());
+    }
+
+    private static class FrameResult {
+        final String frame;
+        final int target;
+        int occurrences;
+
+        FrameResult(String frame, int target) {
+            this.frame = frame;
+            this.target = target;
+        }
+    }
+}
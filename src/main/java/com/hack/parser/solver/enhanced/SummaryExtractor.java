@@ -0,0 +1,345 @@
+package com.hack.parser.solver.enhanced;
+
+import com.github.javaparser.Position;
+import com.github.javaparser.Range;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.ImportDeclaration;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.PackageDeclaration;
+import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
+import com.github.javaparser.ast.body.FieldDeclaration;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.ast.body.VariableDeclarator;
+import com.github.javaparser.ast.comments.Comment;
+import com.github.javaparser.ast.expr.MethodCallExpr;
+import com.github.javaparser.ast.nodeTypes.NodeWithExtends;
+import com.github.javaparser.ast.nodeTypes.NodeWithImplements;
+import com.github.javaparser.ast.type.ClassOrInterfaceType;
+import com.github.javaparser.ast.type.Type;
+import com.github.javaparser.resolution.declarations.ResolvedMethodDeclaration;
+import com.github.javaparser.resolution.declarations.ResolvedReferenceTypeDeclaration;
+import com.github.javaparser.resolution.types.ResolvedType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Turns a parsed CompilationUnit into a {@link FileSummary}. This is the only place where
+ * method declarations, call expressions and implemented interfaces are resolved, so it has
+ * to run on the thread that owns the parser which produced the CompilationUnit. Nothing in
+ * the summary refers back to the AST, so the CompilationUnit can be dropped afterwards.
+ */
+public class SummaryExtractor {
+
+    private final String packagePrefix;
+    private final CallResolutionCache resolutionCache;
+    /** Call sites seen by every extraction so far, on any thread */
+    final LongAdder resolvedCalls = new LongAdder();
+    final LongAdder unresolvedCalls = new LongAdder();
+
+    public SummaryExtractor(String packagePrefix) {
+        this(packagePrefix, null);
+    }
+
+    /**
+     * @param resolutionCache memoized call-site resolutions, or null to resolve every call
+     */
+    public SummaryExtractor(String packagePrefix, CallResolutionCache resolutionCache) {
+        this.packagePrefix = packagePrefix;
+        this.resolutionCache = resolutionCache;
+    }
+
+    /**
+     * @param content the text the CompilationUnit was parsed from, used to turn ranges into offsets
+     */
+    public FileSummary extract(String path, String contentHash, String content, CompilationUnit cu) {
+        int[] lineStarts = lineStarts(content);
+        FileSummary summary = new FileSummary();
+        summary.path = path;
+        summary.contentHash = contentHash;
+
+        Optional<PackageDeclaration> pkg = cu.getPackageDeclaration();
+        summary.packageName = pkg.map(PackageDeclaration::getNameAsString).orElse(null);
+        summary.callsResolved = summary.isInPackage(packagePrefix);
+
+        CallResolutionCache.FileResolutions resolutions = null;
+        if (resolutionCache != null && summary.callsResolved) {
+            resolutions = resolutionCache.forFile(contentHash);
+            if (resolutions.isCommitted()) {
+                // The caller has to check these against the current declarations
+                summary.reusedResolutions = true;
+                summary.dependencyFingerprints = new TreeMap<>(resolutions.getFingerprints());
+            }
+        }
+
+        for (TypeDeclaration<?> type : cu.findAll(TypeDeclaration.class)) {
+            type.getFullyQualifiedName().ifPresent(name -> {
+                summary.declaredTypes.add(name);
+                summarizeMembers(name, type, summary);
+            });
+        }
+        collectImportDependencies(cu, summary);
+
+        Map<MethodDeclaration, Integer> methodIndexes = new IdentityHashMap<>();
+        for (MethodDeclaration method : cu.findAll(MethodDeclaration.class)) {
+            FileSummary.MethodSummary methodSummary = summarizeMethod(method, summary);
+            recordOffsets(method, methodSummary, lineStarts);
+            methodIndexes.put(method, summary.methods.size());
+            summary.methods.add(methodSummary);
+
+            Optional<Node> parent = method.getParentNode();
+            if (summary.callsResolved && methodSummary.className != null
+                    && methodSummary.className.startsWith(packagePrefix)) {
+                methodSummary.calls = resolveCalls(method, summary, resolutions);
+                ClassOrInterfaceDeclaration clazz = (ClassOrInterfaceDeclaration) parent.get();
+                if (!clazz.isInterface() && !clazz.getImplementedTypes().isEmpty()) {
+                    collectInterfaceLinks(clazz, method, methodSummary, summary);
+                }
+            }
+        }
+        summary.callables = CallableIndex.of(cu, method -> methodIndexes.getOrDefault(method, -1));
+
+        return summary;
+    }
+
+    /**
+     * Supertypes and fields of a declared type, which callers in other files resolve against
+     */
+    private static void summarizeMembers(String typeName, TypeDeclaration<?> type, FileSummary summary) {
+        if (type instanceof NodeWithExtends) {
+            for (ClassOrInterfaceType extended : ((NodeWithExtends<?>) type).getExtendedTypes()) {
+                summary.supertypes.add(typeName + " extends " + describe(extended));
+            }
+        }
+        if (type instanceof NodeWithImplements) {
+            for (ClassOrInterfaceType implemented : ((NodeWithImplements<?>) type).getImplementedTypes()) {
+                summary.supertypes.add(typeName + " implements " + describe(implemented));
+            }
+        }
+        for (FieldDeclaration field : type.getFields()) {
+            for (VariableDeclarator variable : field.getVariables()) {
+                summary.fields.add(typeName + "." + variable.getNameAsString() + " " + describe(variable.getType()));
+            }
+        }
+    }
+
+    /**
+     * Qualified name of a type, or the type as written when it cannot be resolved
+     */
+    private static String describe(Type type) {
+        try {
+            return type.resolve().describe();
+        } catch (Exception e) {
+            return type.asString();
+        }
+    }
+
+    private FileSummary.MethodSummary summarizeMethod(MethodDeclaration method, FileSummary summary) {
+        FileSummary.MethodSummary methodSummary = new FileSummary.MethodSummary();
+        methodSummary.returnType = describe(method.getType());
+        try {
+            ResolvedMethodDeclaration resolved = method.resolve();
+            methodSummary.signature = resolved.getQualifiedSignature();
+            methodSummary.resolved = true;
+            for (int i = 0; i < resolved.getNumberOfParams(); i++) {
+                addTypeDependency(resolved.getParam(i).getType(), summary);
+            }
+        } catch (Exception e) {
+            // Fallback to simple signature
+            methodSummary.signature = method.getDeclarationAsString(false, false, false);
+        }
+
+        if (method.getRange().isPresent()) {
+            methodSummary.beginLine = method.getRange().get().begin.line;
+            methodSummary.endLine = method.getRange().get().end.line;
+        }
+
+        Optional<Node> parent = method.getParentNode();
+        if (summary.packageName != null && parent.isPresent() && parent.get() instanceof ClassOrInterfaceDeclaration) {
+            ClassOrInterfaceDeclaration clazz = (ClassOrInterfaceDeclaration) parent.get();
+            methodSummary.className = summary.packageName + "." + clazz.getNameAsString();
+        }
+        return methodSummary;
+    }
+
+    private void recordOffsets(MethodDeclaration method, FileSummary.MethodSummary methodSummary, int[] lineStarts) {
+        if (!method.getRange().isPresent()) {
+            return;
+        }
+        Range range = method.getRange().get();
+        methodSummary.beginOffset = offsetOf(range.begin, lineStarts);
+        methodSummary.endOffset = offsetOf(range.end, lineStarts) + 1;
+
+        method.getBody().flatMap(body -> body.getRange()).ifPresent(bodyRange -> {
+            methodSummary.bodyBeginOffset = offsetOf(bodyRange.begin, lineStarts);
+            methodSummary.bodyEndOffset = offsetOf(bodyRange.end, lineStarts) + 1;
+        });
+
+        List<Integer> offsets = new ArrayList<>();
+        Optional<Range> commentRange = method.getComment().flatMap(Comment::getRange);
+        offsets.add(commentRange.map(r -> offsetOf(r.begin, lineStarts)).orElse(-1));
+        offsets.add(commentRange.map(r -> offsetOf(r.end, lineStarts) + 1).orElse(-1));
+
+        // Orphan comments of the enclosing type that start within 3 lines before the method
+        if (method.getParentNode().isPresent()) {
+            for (Comment orphan : method.getParentNode().get().getOrphanComments()) {
+                if (orphan.getRange().isPresent()) {
+                    int commentLine = orphan.getRange().get().begin.line;
+                    if (commentLine >= range.begin.line - 3 && commentLine < range.begin.line) {
+                        offsets.add(offsetOf(orphan.getRange().get().begin, lineStarts));
+                        offsets.add(offsetOf(orphan.getRange().get().end, lineStarts) + 1);
+                    }
+                }
+            }
+        }
+        methodSummary.commentOffsets = offsets.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Start offset of every line, using the same line terminators as the JavaParser tokenizer
+     */
+    static int[] lineStarts(String content) {
+        int[] starts = new int[64];
+        int lines = 1;
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (c == '\r' && i + 1 < content.length() && content.charAt(i + 1) == '\n') {
+                i++;
+            }
+            if (c == '\n' || c == '\r') {
+                if (lines == starts.length) {
+                    starts = Arrays.copyOf(starts, lines * 2);
+                }
+                starts[lines++] = i + 1;
+            }
+        }
+        return Arrays.copyOf(starts, lines);
+    }
+
+    private static int offsetOf(Position position, int[] lineStarts) {
+        return lineStarts[position.line - 1] + position.column - 1;
+    }
+
+    private List<String> resolveCalls(MethodDeclaration method, FileSummary summary,
+                                      CallResolutionCache.FileResolutions resolutions) {
+        List<String> calls = new ArrayList<>();
+        for (MethodCallExpr callExpr : method.findAll(MethodCallExpr.class)) {
+            String site = resolutions == null ? null
+                    : callExpr.getRange().map(CallResolutionCache::siteKey).orElse(null);
+            CallResolutionCache.Resolution resolution = site == null ? null : resolutions.lookup(site);
+            if (resolution == null) {
+                resolution = resolve(callExpr);
+                if (site != null) {
+                    resolutions.record(site, resolution);
+                }
+            }
+
+            // Skip unresolvable calls
+            if (resolution.isResolved()) {
+                resolvedCalls.increment();
+                calls.add(resolution.signature);
+                if (resolution.declaringType != null) {
+                    summary.typeDependencies.add(resolution.declaringType);
+                }
+            } else {
+                unresolvedCalls.increment();
+            }
+        }
+        return calls;
+    }
+
+    private static CallResolutionCache.Resolution resolve(MethodCallExpr callExpr) {
+        String signature;
+        ResolvedMethodDeclaration resolvedCallee;
+        try {
+            resolvedCallee = callExpr.resolve();
+            signature = resolvedCallee.getQualifiedSignature();
+        } catch (Exception e) {
+            return CallResolutionCache.Resolution.UNRESOLVED;
+        }
+        try {
+            return new CallResolutionCache.Resolution(signature, resolvedCallee.declaringType().getQualifiedName());
+        } catch (Exception e) {
+            return new CallResolutionCache.Resolution(signature, null);
+        }
+    }
+
+    private void collectInterfaceLinks(ClassOrInterfaceDeclaration clazz, MethodDeclaration method,
+                                       FileSummary.MethodSummary methodSummary, FileSummary summary) {
+        for (ClassOrInterfaceType implementedType : clazz.getImplementedTypes()) {
+            try {
+                ResolvedReferenceTypeDeclaration resolvedInterface =
+                        implementedType.resolve().asReferenceType().getTypeDeclaration().get();
+                summary.typeDependencies.add(resolvedInterface.getQualifiedName());
+
+                String interfaceSignature = findInterfaceMethodSignature(resolvedInterface, method);
+                if (interfaceSignature != null) {
+                    summary.interfaceLinks.add(
+                            new FileSummary.InterfaceLink(interfaceSignature, methodSummary.signature));
+                }
+            } catch (Exception e) {
+                // Skip if cannot resolve interface
+            }
+        }
+    }
+
+    private String findInterfaceMethodSignature(ResolvedReferenceTypeDeclaration interfaceDecl,
+                                                MethodDeclaration implMethod) {
+        try {
+            ResolvedMethodDeclaration resolvedImpl = implMethod.resolve();
+            String methodName = implMethod.getNameAsString();
+
+            for (ResolvedMethodDeclaration interfaceMethod : interfaceDecl.getDeclaredMethods()) {
+                if (interfaceMethod.getName().equals(methodName) &&
+                        interfaceMethod.getNumberOfParams() == resolvedImpl.getNumberOfParams()) {
+
+                    boolean paramsMatch = true;
+                    for (int i = 0; i < interfaceMethod.getNumberOfParams(); i++) {
+                        if (!interfaceMethod.getParam(i).getType().equals(resolvedImpl.getParam(i).getType())) {
+                            paramsMatch = false;
+                            break;
+                        }
+                    }
+
+                    if (paramsMatch) {
+                        return interfaceMethod.getQualifiedSignature();
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // Fall back to basic signature matching
+        }
+        return null;
+    }
+
+    private void collectImportDependencies(CompilationUnit cu, FileSummary summary) {
+        // Unqualified names resolve against the file's own package and its imports
+        if (summary.packageName != null) {
+            summary.packageDependencies.add(summary.packageName);
+        }
+        for (ImportDeclaration importDecl : cu.getImports()) {
+            String name = importDecl.getNameAsString();
+            if (importDecl.isAsterisk() && !importDecl.isStatic()) {
+                summary.packageDependencies.add(name);
+            } else if (importDecl.isStatic() && !importDecl.isAsterisk()) {
+                int lastDot = name.lastIndexOf('.');
+                summary.typeDependencies.add(lastDot > 0 ? name.substring(0, lastDot) : name);
+            } else {
+                summary.typeDependencies.add(name);
+            }
+        }
+    }
+
+    private void addTypeDependency(ResolvedType type, FileSummary summary) {
+        if (type.isReferenceType()) {
+            summary.typeDependencies.add(type.asReferenceType().getQualifiedName());
+        }
+    }
+}
@@ -0,0 +1,506 @@
+package com.hack.parser.solver.enhanced;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Generates Java source trees of any size for benchmarks and stress tests, shaped like the
+ * com.hack.parser.test fixtures: classes that call each other through concrete classes and
+ * through interfaces with several implementations. The same settings and seed always give the
+ * same files.
+ * <p>
+ * Every class has one method that calls methods of classes one level deeper, so the call chains
+ * from the top level are {@code callDepth} methods long. A class is either a plain class, called
+ * on a new instance, or one of the {@code fanOut} implementations of an interface, called through
+ * a field of the interface type so that every implementation is a possible callee. On top of that
+ * a share of the methods ({@code diamondDensity}) call a second class whose chain joins their
+ * first one again a level further down, and {@code recursionCycles} methods call back up to a
+ * method whose chain leads to them.
+ * <p>
+ * Settings can also be given as text, e.g. {@code packages=100,classesPerPackage=1000,seed=7},
+ * see {@link #parse}; {@link #main} takes them as arguments together with {@code out=<dir>}.
+ */
+@Slf4j
+public class SyntheticCodebase {
+
+    private String packagePrefix = "com.synthetic";
+    private int packages = 10;
+    private int classesPerPackage = 20;
+    private int interfacesPerPackage = 2;
+    private int fanOut = 3;
+    private int callDepth = 8;
+    private double diamondDensity = 0.2;
+    private int recursionCycles = 5;
+    private long seed = 42;
+
+    public static void main(String[] args) throws IOException {
+        Path out = null;
+        List<String> settings = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("out=")) {
+                out = Paths.get(arg.substring("out=".length()));
+            } else {
+                settings.add(arg);
+            }
+        }
+        SyntheticCodebase codebase = parse(String.join(",", settings));
+        Generated generated = out == null ? codebase.generate() : codebase.generate(out);
+        System.out.println(generated);
+    }
+
+    /**
+     * Settings from comma or space separated {@code name=value} pairs; the others keep their defaults
+     */
+    public static SyntheticCodebase parse(String settings) {
+        SyntheticCodebase codebase = new SyntheticCodebase();
+        for (String setting : settings.trim().split("[,\\s]+")) {
+            if (setting.isEmpty()) {
+                continue;
+            }
+            int equals = setting.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Expected name=value: " + setting);
+            }
+            String name = setting.substring(0, equals);
+            String value = setting.substring(equals + 1);
+            try {
+                switch (name) {
+                    case "packagePrefix": codebase.setPackagePrefix(value); break;
+                    case "packages": codebase.setPackages(Integer.parseInt(value)); break;
+                    case "classesPerPackage": codebase.setClassesPerPackage(Integer.parseInt(value)); break;
+                    case "interfacesPerPackage": codebase.setInterfacesPerPackage(Integer.parseInt(value)); break;
+                    case "fanOut": codebase.setFanOut(Integer.parseInt(value)); break;
+                    case "callDepth": codebase.setCallDepth(Integer.parseInt(value)); break;
+                    case "diamondDensity": codebase.setDiamondDensity(Double.parseDouble(value)); break;
+                    case "recursionCycles": codebase.setRecursionCycles(Integer.parseInt(value)); break;
+                    case "seed": codebase.setSeed(Long.parseLong(value)); break;
+                    default: throw new IllegalArgumentException("Unknown setting: " + name);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value of " + name + ": " + value);
+            }
+        }
+        return codebase;
+    }
+
+    /**
+     * Packages are named {@code <packagePrefix>.p0}, {@code <packagePrefix>.p1}, ...
+     */
+    public void setPackagePrefix(String packagePrefix) {
+        this.packagePrefix = packagePrefix;
+    }
+
+    public void setPackages(int packages) {
+        this.packages = packages;
+    }
+
+    /**
+     * Classes in each package, counting interface implementations but not the interfaces
+     */
+    public void setClassesPerPackage(int classesPerPackage) {
+        this.classesPerPackage = classesPerPackage;
+    }
+
+    public void setInterfacesPerPackage(int interfacesPerPackage) {
+        this.interfacesPerPackage = interfacesPerPackage;
+    }
+
+    /**
+     * Implementations of each interface
+     */
+    public void setFanOut(int fanOut) {
+        this.fanOut = fanOut;
+    }
+
+    /**
+     * Methods in the longest call chain without cycles
+     */
+    public void setCallDepth(int callDepth) {
+        this.callDepth = callDepth;
+    }
+
+    /**
+     * Share of the methods, between 0 and 1, that call a second class whose chain joins their first one
+     */
+    public void setDiamondDensity(double diamondDensity) {
+        this.diamondDensity = diamondDensity;
+    }
+
+    /**
+     * Calls back up a chain, each closing one cycle
+     */
+    public void setRecursionCycles(int recursionCycles) {
+        this.recursionCycles = recursionCycles;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Write the source tree to a new temporary directory
+     */
+    public Generated generate() throws IOException {
+        return generate(Files.createTempDirectory("synthetic-codebase"));
+    }
+
+    /**
+     * Write the source tree below a source root, which is created if needed
+     */
+    public Generated generate(Path sourceRoot) throws IOException {
+        validate();
+        Random random = new Random(seed);
+        List<List<Callable>> levels = layOut(random);
+        List<Method> methods = new ArrayList<>();
+        levels.forEach(level -> level.forEach(callable -> methods.addAll(callable.methods)));
+        int calls = connect(levels, methods, random);
+
+        int files = 0;
+        for (List<Callable> level : levels) {
+            for (Callable callable : level) {
+                files += write(sourceRoot, callable);
+            }
+        }
+
+        // The most called method of the deepest level, which the most chains lead to
+        Method target = null;
+        for (Callable callable : levels.get(levels.size() - 1)) {
+            for (Method method : callable.methods) {
+                if (target == null || method.callerCount > target.callerCount) {
+                    target = method;
+                }
+            }
+        }
+        Generated generated = new Generated(sourceRoot, packagePrefix, files, methods.size(), calls,
+                target.qualifiedClassName(), target.line, target.signature());
+        log.info("Generated " + generated);
+        return generated;
+    }
+
+    private void validate() {
+        if (packages < 1 || classesPerPackage < 1 || callDepth < 1 || interfacesPerPackage < 0
+                || fanOut < 1 || recursionCycles < 0) {
+            throw new IllegalArgumentException("Counts must be positive");
+        }
+        if (interfacesPerPackage * fanOut > classesPerPackage) {
+            throw new IllegalArgumentException("interfacesPerPackage * fanOut exceeds classesPerPackage");
+        }
+        if (diamondDensity < 0 || diamondDensity > 1) {
+            throw new IllegalArgumentException("diamondDensity must be between 0 and 1");
+        }
+    }
+
+    /**
+     * All classes and interfaces, shuffled into {@code callDepth} levels of about the same size
+     */
+    private List<List<Callable>> layOut(Random random) {
+        List<Callable> callables = new ArrayList<>();
+        int classNumber = 0;
+        for (int packageNumber = 0; packageNumber < packages; packageNumber++) {
+            String packageName = packagePrefix + ".p" + packageNumber;
+            for (int i = 0; i < interfacesPerPackage; i++) {
+                callables.add(new Callable(packageName, "I" + classNumber++, fanOut));
+            }
+            for (int i = interfacesPerPackage * fanOut; i < classesPerPackage; i++) {
+                callables.add(new Callable(packageName, "C" + classNumber++, 0));
+            }
+        }
+        Collections.shuffle(callables, random);
+
+        int depth = Math.min(callDepth, callables.size());
+        List<List<Callable>> levels = new ArrayList<>();
+        for (int level = 0; level < depth; level++) {
+            levels.add(new ArrayList<>());
+        }
+        for (int i = 0; i < callables.size(); i++) {
+            Callable callable = callables.get(i);
+            callable.level = (int) ((long) i * depth / callables.size());
+            levels.get(callable.level).add(callable);
+        }
+        return levels;
+    }
+
+    /**
+     * Calls between the methods; the first callee of a method is its chain down to the last level
+     *
+     * @return number of calls
+     */
+    private int connect(List<List<Callable>> levels, List<Method> methods, Random random) {
+        for (Method method : methods) {
+            if (method.owner.level + 1 < levels.size()) {
+                method.call(pick(levels.get(method.owner.level + 1), random, null));
+            }
+        }
+
+        // method -> {first, second} -> first callee of first: a diamond
+        for (Method method : methods) {
+            int level = method.owner.level;
+            if (level + 2 < levels.size() && levels.get(level + 1).size() > 1
+                    && random.nextDouble() < diamondDensity) {
+                Callable first = method.callees.get(0);
+                Callable second = pick(levels.get(level + 1), random, first);
+                method.call(second);
+                second.methods.get(0).call(first.methods.get(0).callees.get(0));
+            }
+        }
+
+        // A method down the chain of a callable calls it again: a cycle
+        int firstLevel = levels.size() > 2 ? 1 : 0;
+        for (int i = 0; i < recursionCycles; i++) {
+            int level = firstLevel + random.nextInt(Math.max(levels.size() - 1 - firstLevel, 1));
+            Callable head = pick(levels.get(level), random, null);
+            Method method = head.methods.get(0);
+            for (int steps = random.nextInt(levels.size() - level); steps > 0; steps--) {
+                method = method.callees.get(0).methods.get(0);
+            }
+            method.callBack(head);
+        }
+
+        int calls = 0;
+        for (Method method : methods) {
+            calls += method.callees.size() + method.backCalls.size();
+        }
+        return calls;
+    }
+
+    private static Callable pick(List<Callable> level, Random random, Callable except) {
+        Callable picked;
+        do {
+            picked = level.get(random.nextInt(level.size()));
+        } while (picked == except);
+        return picked;
+    }
+
+    /**
+     * Write the file of a class, or of an interface and its implementations
+     *
+     * @return number of files written
+     */
+    private int write(Path sourceRoot, Callable callable) throws IOException {
+        Path directory = sourceRoot.resolve(callable.packageName.replace('.', '/'));
+        Files.createDirectories(directory);
+        if (!callable.isInterface()) {
+            writeClass(directory, callable.methods.get(0), null);
+            return 1;
+        }
+        List<String> lines = new ArrayList<>();
+        lines.add("package " + callable.packageName + ";");
+        lines.add("");
+        lines.add("public interface " + callable.name + " {");
+        lines.add("    int apply(int value);");
+        lines.add("}");
+        Files.write(directory.resolve(callable.name + ".java"), lines, StandardCharsets.UTF_8);
+        for (Method method : callable.methods) {
+            writeClass(directory, method, callable.name);
+        }
+        return 1 + callable.methods.size();
+    }
+
+    private static void writeClass(Path directory, Method method, String implemented) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("package " + method.owner.packageName + ";");
+        lines.add("");
+        lines.add("public class " + method.simpleClassName()
+                + (implemented == null ? "" : " implements " + implemented) + " {");
+        // Interfaces are called through fields, so every implementation is a possible callee
+        Set<Callable> fields = new LinkedHashSet<>();
+        method.callees.stream().filter(Callable::isInterface).forEach(fields::add);
+        method.backCalls.stream().filter(Callable::isInterface).forEach(fields::add);
+        for (Callable field : fields) {
+            lines.add("    private final " + field.qualifiedName() + " " + field.fieldName() + " = new "
+                    + field.methods.get(0).qualifiedClassName() + "();");
+        }
+        if (!fields.isEmpty()) {
+            lines.add("");
+        }
+
+        if (implemented != null) {
+            lines.add("    @Override");
+        }
+        method.line = lines.size() + 1;
+        lines.add("    public int " + method.name() + "(int value) {");
+        for (Callable callee : method.callees) {
+            lines.add("        value = " + method.invocation(callee) + "(value + 1);");
+        }
+        if (!method.backCalls.isEmpty()) {
+            lines.add("        if (value < " + (1000 + method.owner.level) + ") {");
+            for (Callable callee : method.backCalls) {
+                lines.add("            value = " + method.invocation(callee) + "(value + 1);");
+            }
+            lines.add("        }");
+        }
+        lines.add("        return value;");
+        lines.add("    }");
+        lines.add("}");
+        Files.write(directory.resolve(method.simpleClassName() + ".java"), lines, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A class, or an interface with its implementations
+     */
+    private static final class Callable {
+        final String packageName;
+        final String name;
+        final List<Method> methods = new ArrayList<>();
+        int level;
+
+        Callable(String packageName, String name, int implementations) {
+            this.packageName = packageName;
+            this.name = name;
+            if (implementations == 0) {
+                methods.add(new Method(this, -1));
+            }
+            for (int i = 0; i < implementations; i++) {
+                methods.add(new Method(this, i));
+            }
+        }
+
+        boolean isInterface() {
+            return methods.get(0).implementation >= 0;
+        }
+
+        String qualifiedName() {
+            return packageName + "." + name;
+        }
+
+        String fieldName() {
+            return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+        }
+    }
+
+    /**
+     * The method of a plain class or of one implementation of an interface
+     */
+    private static final class Method {
+        final Callable owner;
+        /** Number of the implementation, -1 in a plain class */
+        final int implementation;
+        final List<Callable> callees = new ArrayList<>();
+        /** Callees up the chain, called behind a condition */
+        final List<Callable> backCalls = new ArrayList<>();
+        int callerCount;
+        int line;
+
+        Method(Callable owner, int implementation) {
+            this.owner = owner;
+            this.implementation = implementation;
+        }
+
+        void call(Callable callee) {
+            if (!callees.contains(callee)) {
+                callees.add(callee);
+                callee.methods.forEach(method -> method.callerCount++);
+            }
+        }
+
+        void callBack(Callable callee) {
+            if (!backCalls.contains(callee)) {
+                backCalls.add(callee);
+                callee.methods.forEach(method -> method.callerCount++);
+            }
+        }
+
+        String name() {
+            return implementation < 0 ? "run" + owner.name.substring(1) : "apply";
+        }
+
+        String simpleClassName() {
+            return implementation < 0 ? owner.name : owner.name + "Impl" + implementation;
+        }
+
+        String qualifiedClassName() {
+            return owner.packageName + "." + simpleClassName();
+        }
+
+        String signature() {
+            return qualifiedClassName() + "." + name() + "(int)";
+        }
+
+        /**
+         * Expression up to the argument list that calls the method of a callee
+         */
+        String invocation(Callable callee) {
+            if (callee.isInterface()) {
+                return callee.fieldName() + ".apply";
+            }
+            Method method = callee.methods.get(0);
+            return callee == owner ? method.name() : "new " + method.qualifiedClassName() + "()." + method.name();
+        }
+    }
+
+    /**
+     * A generated source tree and a method to query it with
+     */
+    public static final class Generated {
+        private final Path sourceRoot;
+        private final String packagePrefix;
+        private final int fileCount;
+        private final int methodCount;
+        private final int callCount;
+        private final String targetClass;
+        private final int targetLine;
+        private final String targetSignature;
+
+        Generated(Path sourceRoot, String packagePrefix, int fileCount, int methodCount, int callCount,
+                  String targetClass, int targetLine, String targetSignature) {
+            this.sourceRoot = sourceRoot;
+            this.packagePrefix = packagePrefix;
+            this.fileCount = fileCount;
+            this.methodCount = methodCount;
+            this.callCount = callCount;
+            this.targetClass = targetClass;
+            this.targetLine = targetLine;
+            this.targetSignature = targetSignature;
+        }
+
+        public Path getSourceRoot() {
+            return sourceRoot;
+        }
+
+        public String getPackagePrefix() {
+            return packagePrefix;
+        }
+
+        public int getFileCount() {
+            return fileCount;
+        }
+
+        public int getMethodCount() {
+            return methodCount;
+        }
+
+        public int getCallCount() {
+            return callCount;
+        }
+
+        /**
+         * Class of the most called method of the deepest level
+         */
+        public String getTargetClass() {
+            return targetClass;
+        }
+
+        /**
+         * Line of the declaration of the target method
+         */
+        public int getTargetLine() {
+            return targetLine;
+        }
+
+        public String getTargetSignature() {
+            return targetSignature;
+        }
+
+        @Override
+        public String toString() {
+            return fileCount + " file(s) with " + methodCount + " method(s) and " + callCount + " call(s) in "
+                    + sourceRoot + ", target " + targetSignature + " at line " + targetLine;
+        }
+    }
+}
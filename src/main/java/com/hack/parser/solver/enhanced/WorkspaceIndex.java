@@ -0,0 +1,752 @@
+package com.hack.parser.solver.enhanced;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Snapshot of an indexed workspace: file summaries, the method lookup tables and the call graph
+ * that {@link MethodCallFinder} queries. A published snapshot is never modified; {@link #patch}
+ * returns a new snapshot and only copies the entries that the change touched.
+ * Only summaries are held; method bodies and comments are read back from disk when needed.
+ * <p>
+ * Method signatures and file paths are interned to int ids by {@link SignatureTable}s. The lookup
+ * tables are arrays indexed by signature id, and the call graphs are {@link CallGraph}s, which
+ * hold callees and callers in compressed sparse row form.
+ */
+@Slf4j
+public class WorkspaceIndex {
+
+    static final int[] NO_IDS = new int[0];
+
+    final Path sourceRoot;
+    final String packagePrefix;
+    final Map<String, FileSummary> summaries;
+    /** Class name, in any form {@link CallableIndex} accepts -> paths of the files declaring it */
+    final Map<String, List<String>> filesByClass;
+    /** Every declared, called or implemented method signature */
+    final SignatureTable signatures;
+    final SignatureTable filePaths;
+    /** signature id -> id of the declaring file in filePaths, -1 if not declared in an indexed file */
+    final int[] methodFile;
+    /** signature id -> line the declaration begins on, 0 if unknown */
+    final int[] methodLine;
+    /** interface method -> implementations */
+    final int[][] implementations;
+    /** Calls as written in the source, before interface expansion */
+    final CallGraph directCalls;
+    /** Calls including the implementations of called interface methods */
+    final CallGraph callGraph;
+    /** Every method with at least one callee, in the order entry points are tried */
+    final int[] callers;
+    /**
+     * signature id -> position among the entry points (callers nobody calls, and main methods)
+     * in the order they are tried, -1 for other methods
+     */
+    final int[] entryPointRank;
+
+    private WorkspaceIndex(Path sourceRoot, String packagePrefix,
+                           Map<String, FileSummary> summaries,
+                           Map<String, List<String>> filesByClass,
+                           SignatureTable signatures,
+                           SignatureTable filePaths,
+                           int[] methodFile,
+                           int[] methodLine,
+                           int[][] implementations,
+                           CallGraph directCalls,
+                           CallGraph callGraph) {
+        this.sourceRoot = sourceRoot;
+        this.packagePrefix = packagePrefix;
+        this.summaries = summaries;
+        this.filesByClass = filesByClass;
+        this.signatures = signatures;
+        this.filePaths = filePaths;
+        this.methodFile = methodFile;
+        this.methodLine = methodLine;
+        this.implementations = implementations;
+        this.directCalls = directCalls;
+        this.callGraph = callGraph;
+        this.callers = callerOrder(callGraph);
+        this.entryPointRank = entryPointRanks(callGraph, callers);
+    }
+
+    /**
+     * Build the lookup tables and call graph for freshly indexed sources
+     */
+    public static WorkspaceIndex build(SourceIndexer.IndexedSources sources, String packagePrefix) {
+        Map<String, FileSummary> summaries = sources.getSummaries();
+
+        // Declared methods get the first ids, in the order they are declared
+        SignatureTable signatures = new SignatureTable();
+        SignatureTable filePaths = new SignatureTable();
+        int[] methodFile;
+        int[] methodLine;
+        Map<String, List<String>> filesByClass = new HashMap<>();
+        try (PhaseProfiler.Phase phase = PhaseProfiler.start(PhaseProfiler.METADATA)) {
+            for (FileSummary summary : summaries.values()) {
+                internDeclarations(summary, signatures);
+            }
+            for (FileSummary summary : summaries.values()) {
+                internReferences(summary, signatures);
+            }
+
+            methodFile = new int[signatures.size()];
+            methodLine = new int[signatures.size()];
+            Arrays.fill(methodFile, -1);
+            for (Map.Entry<String, FileSummary> entry : summaries.entrySet()) {
+                addMethodMetadata(entry.getKey(), entry.getValue(), signatures, filePaths, methodFile, methodLine);
+            }
+
+            for (Map.Entry<String, FileSummary> entry : summaries.entrySet()) {
+                addClassNames(entry.getKey(), entry.getValue(), filesByClass);
+            }
+            phase.count(PhaseProfiler.FILES, summaries.size());
+            phase.count(PhaseProfiler.NODES, signatures.size());
+        }
+        int size = signatures.size();
+
+        int[][] implementations;
+        try (PhaseProfiler.Phase phase = PhaseProfiler.start(PhaseProfiler.INTERFACE_MAPPING)) {
+            implementations = buildInterfaceImplementationMap(summaries, signatures, packagePrefix);
+            phase.count(PhaseProfiler.EDGES, Arrays.stream(implementations).mapToLong(ids -> ids.length).sum());
+        }
+
+        try (PhaseProfiler.Phase phase = PhaseProfiler.start(PhaseProfiler.CALL_GRAPH)) {
+            IdLists directCallees = new IdLists(size);
+            for (FileSummary summary : summaries.values()) {
+                addDirectCalls(summary, packagePrefix, signatures, directCallees);
+            }
+            CallGraph directCalls = CallGraph.of(directCallees.toArrays(), signatures);
+            CallGraph callGraph = buildEnhancedCallGraph(summaries, implementations, signatures, packagePrefix);
+
+            WorkspaceIndex index = new WorkspaceIndex(sources.sourceRoot, packagePrefix, summaries, filesByClass,
+                    signatures, filePaths, methodFile, methodLine, implementations, directCalls, callGraph);
+            phase.count(PhaseProfiler.NODES, callGraph.size());
+            phase.count(PhaseProfiler.EDGES, callGraph.edgeCount());
+            return index;
+        }
+    }
+
+    static int[][] buildInterfaceImplementationMap(Map<String, FileSummary> summaries,
+                                                   SignatureTable signatures, String packagePrefix) {
+        IdLists interfaceToImpls = new IdLists(signatures.size());
+
+        for (FileSummary summary : summaries.values()) {
+            if (!summary.isInPackage(packagePrefix)) continue;
+
+            for (FileSummary.InterfaceLink link : summary.getInterfaceLinks()) {
+                interfaceToImpls.add(signatures.id(link.getInterfaceSignature()),
+                        signatures.id(link.getImplementationSignature()));
+            }
+        }
+
+        // In id order, which does not depend on the order the files were summarized in
+        int[][] implementations = interfaceToImpls.toArrays();
+        for (int[] ids : implementations) {
+            Arrays.sort(ids);
+        }
+        return implementations;
+    }
+
+    /**
+     * Build enhanced call graph (caller -> callees) with better debugging
+     */
+    static CallGraph buildEnhancedCallGraph(Map<String, FileSummary> summaries,
+                                            int[][] implementations,
+                                            SignatureTable signatures,
+                                            String packagePrefix) {
+
+        IdLists callGraph = new IdLists(signatures.size());
+
+        for (FileSummary summary : summaries.values()) {
+            if (!summary.isInPackage(packagePrefix)) continue;
+
+            for (FileSummary.MethodSummary method : summary.getMethods()) {
+                if (!hasCallEdges(method, packagePrefix)) continue;
+
+                int caller = signatures.id(method.getSignature());
+
+                for (String calleeSignature : method.getCalls()) {
+                    // Add direct call relationship
+                    int callee = signatures.id(calleeSignature);
+                    callGraph.add(caller, callee);
+
+                    // If this is an interface call, also add relationships to implementations
+                    for (int implementation : implementations[callee]) {
+                        callGraph.add(caller, implementation);
+                    }
+                }
+            }
+        }
+
+        // Calls in source order, each followed by the implementations of the called method
+        CallGraph graph = CallGraph.of(callGraph.toArrays(), signatures);
+
+        // Debug: Print call graph
+        log.info("=== CALL GRAPH DEBUG ===");
+        for (int caller : callerOrder(graph)) {
+            log.info(signatures.name(caller) + " -> " + names(graph.callees(caller), signatures));
+        }
+        log.info("========================");
+
+        return graph;
+    }
+
+    /**
+     * New snapshot with the given files replaced or removed. Only the metadata, interface links and
+     * outgoing edges of the changed files are rebuilt, plus the edges of callers whose interface
+     * targets gained or lost an implementation. Ids stay the same, new signatures get new ids.
+     *
+     * @param changed   new summaries of added or modified files, keyed by path
+     * @param removed   paths of deleted files
+     */
+    public WorkspaceIndex patch(Map<String, FileSummary> changed, Set<String> removed) {
+        try (PhaseProfiler.Phase phase = PhaseProfiler.start(PhaseProfiler.PATCH)) {
+            WorkspaceIndex patched = patchIndex(changed, removed);
+            phase.count(PhaseProfiler.FILES, changed.size() + removed.size());
+            phase.count(PhaseProfiler.NODES, patched.callGraph.size());
+            phase.count(PhaseProfiler.EDGES, patched.callGraph.edgeCount());
+            return patched;
+        }
+    }
+
+    private WorkspaceIndex patchIndex(Map<String, FileSummary> changed, Set<String> removed) {
+        Map<String, FileSummary> newSummaries = new HashMap<>(summaries);
+        Map<String, List<String>> newFilesByClass = new HashMap<>(filesByClass);
+        SignatureTable newSignatures = signatures.copy();
+        SignatureTable newFilePaths = filePaths.copy();
+        for (FileSummary summary : changed.values()) {
+            internDeclarations(summary, newSignatures);
+            internReferences(summary, newSignatures);
+        }
+        int size = newSignatures.size();
+
+        // Only the entries that change are copied; both graphs are re-laid out once at the end
+        int[] newMethodFile = grow(methodFile, size, -1);
+        int[] newMethodLine = grow(methodLine, size, 0);
+        int[][] newImplementations = Arrays.copyOf(implementations, size);
+        Arrays.fill(newImplementations, implementations.length, size, NO_IDS);
+        int[][] newDirectCallees = new int[size][];
+
+        BitSet affectedCallers = new BitSet(size);
+        BitSet touchedInterfaces = new BitSet(size);
+
+        Set<String> replacedPaths = new HashSet<>(removed);
+        replacedPaths.addAll(changed.keySet());
+        for (String path : replacedPaths) {
+            FileSummary old = newSummaries.remove(path);
+            if (old == null) {
+                continue;
+            }
+            removeClassNames(path, old, newFilesByClass);
+            int file = newFilePaths.id(path);
+            for (FileSummary.MethodSummary method : old.getMethods()) {
+                int id = newSignatures.id(method.getSignature());
+                if (newMethodFile[id] == file) {
+                    newMethodFile[id] = -1;
+                    newMethodLine[id] = 0;
+                }
+                if (newDirectCallees[id] == null && directCalls.calleeCount(id) > 0) {
+                    affectedCallers.set(id);
+                    newDirectCallees[id] = NO_IDS;
+                }
+            }
+            if (old.isInPackage(packagePrefix)) {
+                for (FileSummary.InterfaceLink link : old.getInterfaceLinks()) {
+                    int interfaceMethod = newSignatures.id(link.getInterfaceSignature());
+                    newImplementations[interfaceMethod] = without(newImplementations[interfaceMethod],
+                            newSignatures.id(link.getImplementationSignature()));
+                    touchedInterfaces.set(interfaceMethod);
+                }
+            }
+        }
+
+        for (Map.Entry<String, FileSummary> entry : changed.entrySet()) {
+            String path = entry.getKey();
+            FileSummary summary = entry.getValue();
+            newSummaries.put(path, summary);
+            addClassNames(path, summary, newFilesByClass);
+            addMethodMetadata(path, summary, newSignatures, newFilePaths, newMethodFile, newMethodLine);
+            if (!summary.isInPackage(packagePrefix)) {
+                continue;
+            }
+            for (FileSummary.MethodSummary method : summary.getMethods()) {
+                if (hasCallEdges(method, packagePrefix) && !method.getCalls().isEmpty()) {
+                    int caller = newSignatures.id(method.getSignature());
+                    affectedCallers.set(caller);
+                    int[] callees = newDirectCallees[caller] != null ? newDirectCallees[caller]
+                            : directCalls.callees(caller);
+                    for (String calleeSignature : method.getCalls()) {
+                        callees = with(callees, newSignatures.id(calleeSignature));
+                    }
+                    newDirectCallees[caller] = callees;
+                }
+            }
+            for (FileSummary.InterfaceLink link : summary.getInterfaceLinks()) {
+                int interfaceMethod = newSignatures.id(link.getInterfaceSignature());
+                newImplementations[interfaceMethod] = with(newImplementations[interfaceMethod],
+                        newSignatures.id(link.getImplementationSignature()));
+                touchedInterfaces.set(interfaceMethod);
+            }
+        }
+        // The reverse edges of the direct calls come with the new graph
+        CallGraph newDirectCalls = directCalls.withCallees(newDirectCallees, newSignatures);
+
+        // Callers of an interface method whose implementations changed need their expanded edges redone
+        for (int interfaceMethod = touchedInterfaces.nextSetBit(0); interfaceMethod >= 0;
+             interfaceMethod = touchedInterfaces.nextSetBit(interfaceMethod + 1)) {
+            newImplementations[interfaceMethod] = sorted(newImplementations[interfaceMethod]);
+            for (int i = newDirectCalls.callersFrom(interfaceMethod); i < newDirectCalls.callersTo(interfaceMethod); i++) {
+                affectedCallers.set(newDirectCalls.caller(i));
+            }
+        }
+
+        // Same order as in build: each direct callee, then its implementations, keeping the first of duplicates
+        int[][] newCallees = new int[size][];
+        int[] lastSeenIn = new int[size];
+        Arrays.fill(lastSeenIn, -1);
+        for (int caller = affectedCallers.nextSetBit(0); caller >= 0; caller = affectedCallers.nextSetBit(caller + 1)) {
+            int count = 0;
+            int[] expanded = new int[8];
+            for (int i = newDirectCalls.calleesFrom(caller); i < newDirectCalls.calleesTo(caller); i++) {
+                int callee = newDirectCalls.callee(i);
+                int[] targets = newImplementations[callee];
+                if (count + 1 + targets.length > expanded.length) {
+                    expanded = Arrays.copyOf(expanded, Math.max(expanded.length * 2, count + 1 + targets.length));
+                }
+                if (lastSeenIn[callee] != caller) {
+                    lastSeenIn[callee] = caller;
+                    expanded[count++] = callee;
+                }
+                for (int implementation : targets) {
+                    if (lastSeenIn[implementation] != caller) {
+                        lastSeenIn[implementation] = caller;
+                        expanded[count++] = implementation;
+                    }
+                }
+            }
+            newCallees[caller] = Arrays.copyOf(expanded, count);
+        }
+
+        log.info("Patched index: " + changed.size() + " file(s) updated, " + removed.size() + " removed, "
+                + affectedCallers.cardinality() + " caller(s) re-linked");
+        return new WorkspaceIndex(sourceRoot, packagePrefix, newSummaries, newFilesByClass, newSignatures, newFilePaths,
+                newMethodFile, newMethodLine, newImplementations, newDirectCalls,
+                callGraph.withCallees(newCallees, newSignatures));
+    }
+
+    public Path getSourceRoot() {
+        return sourceRoot;
+    }
+
+    public String getPackagePrefix() {
+        return packagePrefix;
+    }
+
+    public Map<String, FileSummary> getSummaries() {
+        return Collections.unmodifiableMap(summaries);
+    }
+
+    public SignatureTable getSignatures() {
+        return signatures;
+    }
+
+    /**
+     * Calls as written in the source; its callers are what the reverse caller walk follows
+     */
+    public CallGraph getDirectCalls() {
+        return directCalls;
+    }
+
+    /**
+     * Calls including the implementations of called interface methods
+     */
+    public CallGraph getCallGraph() {
+        return callGraph;
+    }
+
+    /**
+     * Path of the file declaring the method, or null if it is not declared in an indexed file
+     */
+    public String getFilePath(String signature) {
+        int id = signatures.id(signature);
+        return id < 0 || methodFile[id] < 0 ? null : filePaths.name(methodFile[id]);
+    }
+
+    /**
+     * Line the method declaration begins on, 0 if unknown
+     */
+    public int getLineNumber(String signature) {
+        int id = signatures.id(signature);
+        return id < 0 ? 0 : methodLine[id];
+    }
+
+    /**
+     * Callees of the method including implementations of called interface methods
+     */
+    public List<String> getCallees(String signature) {
+        int id = signatures.id(signature);
+        return names(callGraph.callees(id), signatures);
+    }
+
+    /**
+     * The summary of the method with this signature, or null if it is not declared in an indexed file
+     */
+    public FileSummary.MethodSummary findMethod(String signature) {
+        String path = getFilePath(signature);
+        FileSummary summary = path == null ? null : summaries.get(path);
+        if (summary == null) {
+            return null;
+        }
+        // The last declaration wins, like in methodFile
+        FileSummary.MethodSummary found = null;
+        for (FileSummary.MethodSummary method : summary.getMethods()) {
+            if (method.getSignature().equals(signature)) {
+                found = method;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * The innermost method, constructor, initializer or lambda of the class that contains the line,
+     * or null if the class is not indexed or has no callable there
+     *
+     * @param className package plus simple name, canonical name, or binary name as in a stack trace
+     */
+    public CallableLocation findCallable(String className, int lineNumber) {
+        for (String path : filesByClass.getOrDefault(className, Collections.emptyList())) {
+            FileSummary summary = summaries.get(path);
+            int callable = summary.callables.find(className, lineNumber);
+            if (callable >= 0) {
+                return new CallableLocation(summary, callable);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The method whose calls include the line: the innermost method around it, also when the line
+     * is in a lambda or a local or anonymous class inside that method. Null for lines outside any
+     * method, e.g. in a constructor or a field initializer.
+     */
+    public FileSummary.MethodSummary findMethodByLine(String className, int lineNumber) {
+        CallableLocation location = findCallable(className, lineNumber);
+        return location == null ? null : location.getMethod();
+    }
+
+    /**
+     * Methods whose declaring file, line, body, callers or callees differ from those in an earlier
+     * snapshot, or that became or stopped being entry points. This snapshot must have been
+     * patched from the earlier one, directly or not, so both share signature and file ids.
+     */
+    BitSet methodsChangedSince(WorkspaceIndex previous) {
+        // Files re-resolved for a dependency get a new summary of the same text, which leaves
+        // bodies and lines as they were. A file without methods may have no id, and then no
+        // method points at it.
+        BitSet changedFiles = new BitSet();
+        for (Map.Entry<String, FileSummary> entry : summaries.entrySet()) {
+            int file = filePaths.id(entry.getKey());
+            FileSummary old = previous.summaries.get(entry.getKey());
+            if (file >= 0 && old != entry.getValue()
+                    && (old == null || old.contentHash == null || !old.contentHash.equals(entry.getValue().contentHash))) {
+                changedFiles.set(file);
+            }
+        }
+        for (String path : previous.summaries.keySet()) {
+            int file = filePaths.id(path);
+            if (file >= 0 && !summaries.containsKey(path)) {
+                changedFiles.set(file);
+            }
+        }
+
+        BitSet changed = new BitSet();
+        int previousSize = previous.callGraph.size();
+        for (int id = 0; id < callGraph.size(); id++) {
+            if (id >= previousSize) {
+                // New signatures are in no earlier result, but their callers and callees are
+                changed.set(id);
+                continue;
+            }
+            int file = methodFile[id];
+            if (file != previous.methodFile[id] || methodLine[id] != previous.methodLine[id]
+                    || file >= 0 && changedFiles.get(file)
+                    || (entryPointRank[id] >= 0) != (previous.entryPointRank[id] >= 0)
+                    || !Arrays.equals(callGraph.callees(id), previous.callGraph.callees(id))
+                    || !Arrays.equals(callGraph.callers(id), previous.callGraph.callers(id))) {
+                changed.set(id);
+            }
+        }
+        return changed;
+    }
+
+    private static int[] callerOrder(CallGraph graph) {
+        int count = 0;
+        int[] callers = new int[graph.size()];
+        for (int id = 0; id < graph.size(); id++) {
+            if (graph.calleeCount(id) > 0) {
+                callers[count++] = id;
+            }
+        }
+        return Arrays.copyOf(callers, count);
+    }
+
+    /**
+     * Entry points are tried in id order
+     */
+    private static int[] entryPointRanks(CallGraph graph, int[] callers) {
+        SignatureTable signatures = graph.getSignatures();
+        int count = 0;
+        int[] entryPoints = new int[callers.length];
+        for (int method : callers) {
+            if (graph.callerCount(method) == 0 || signatures.name(method).contains("main(")) {
+                entryPoints[count++] = method;
+            }
+        }
+        int[] ranks = new int[graph.size()];
+        Arrays.fill(ranks, -1);
+        for (int rank = 0; rank < count; rank++) {
+            ranks[entryPoints[rank]] = rank;
+        }
+        return ranks;
+    }
+
+    private static List<String> names(int[] ids, SignatureTable signatures) {
+        List<String> names = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            names.add(signatures.name(id));
+        }
+        return names;
+    }
+
+    /**
+     * Intern the signatures a summary declares, replacing them with the interned copies
+     */
+    private static void internDeclarations(FileSummary summary, SignatureTable signatures) {
+        for (FileSummary.MethodSummary method : summary.getMethods()) {
+            method.signature = signatures.canonical(method.signature);
+        }
+    }
+
+    /**
+     * Intern the signatures a summary calls or links, replacing them with the interned copies
+     */
+    private static void internReferences(FileSummary summary, SignatureTable signatures) {
+        for (FileSummary.MethodSummary method : summary.getMethods()) {
+            if (method.calls != null) {
+                method.calls.replaceAll(signatures::canonical);
+            }
+        }
+        for (FileSummary.InterfaceLink link : summary.getInterfaceLinks()) {
+            link.interfaceSignature = signatures.canonical(link.interfaceSignature);
+            link.implementationSignature = signatures.canonical(link.implementationSignature);
+        }
+    }
+
+    private static void addMethodMetadata(String filePath, FileSummary summary,
+                                          SignatureTable signatures, SignatureTable filePaths,
+                                          int[] methodFile, int[] methodLine) {
+        int file = filePaths.intern(filePath);
+        for (FileSummary.MethodSummary method : summary.getMethods()) {
+            int id = signatures.id(method.getSignature());
+            methodFile[id] = file;
+            if (method.getBeginLine() > 0) {
+                methodLine[id] = method.getBeginLine();
+            }
+        }
+    }
+
+    private static void addClassNames(String path, FileSummary summary, Map<String, List<String>> filesByClass) {
+        if (summary.callables == null) {
+            return;
+        }
+        for (String name : classNames(summary)) {
+            List<String> paths = new ArrayList<>(filesByClass.getOrDefault(name, Collections.emptyList()));
+            paths.add(path);
+            filesByClass.put(name, paths);
+        }
+    }
+
+    private static void removeClassNames(String path, FileSummary summary, Map<String, List<String>> filesByClass) {
+        if (summary.callables == null) {
+            return;
+        }
+        for (String name : classNames(summary)) {
+            List<String> paths = new ArrayList<>(filesByClass.getOrDefault(name, Collections.emptyList()));
+            paths.remove(path);
+            if (paths.isEmpty()) {
+                filesByClass.remove(name);
+            } else {
+                filesByClass.put(name, paths);
+            }
+        }
+    }
+
+    private static Set<String> classNames(FileSummary summary) {
+        Set<String> names = new LinkedHashSet<>();
+        for (String[] classNames : summary.callables.classNames) {
+            names.addAll(Arrays.asList(classNames));
+        }
+        return names;
+    }
+
+    private static void addDirectCalls(FileSummary summary, String packagePrefix, SignatureTable signatures,
+                                       IdLists directCallees) {
+        if (!summary.isInPackage(packagePrefix)) {
+            return;
+        }
+        for (FileSummary.MethodSummary method : summary.getMethods()) {
+            if (!hasCallEdges(method, packagePrefix)) continue;
+            int caller = signatures.id(method.getSignature());
+            for (String calleeSignature : method.getCalls()) {
+                directCallees.add(caller, signatures.id(calleeSignature));
+            }
+        }
+    }
+
+    /**
+     * Calls are only resolved for methods of named classes inside the package prefix
+     */
+    private static boolean hasCallEdges(FileSummary.MethodSummary method, String packagePrefix) {
+        String className = method.getClassName();
+        return className != null && className.startsWith(packagePrefix);
+    }
+
+    private static int[] grow(int[] values, int size, int fill) {
+        int[] grown = Arrays.copyOf(values, size);
+        Arrays.fill(grown, values.length, size, fill);
+        return grown;
+    }
+
+    private static int[] sorted(int[] ids) {
+        int[] copy = ids.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    private static int[] with(int[] ids, int id) {
+        if (indexOf(ids, id) >= 0) {
+            return ids;
+        }
+        int[] copy = Arrays.copyOf(ids, ids.length + 1);
+        copy[ids.length] = id;
+        return copy;
+    }
+
+    private static int[] without(int[] ids, int id) {
+        int index = indexOf(ids, id);
+        if (index < 0) {
+            return ids;
+        }
+        if (ids.length == 1) {
+            return NO_IDS;
+        }
+        int[] copy = new int[ids.length - 1];
+        System.arraycopy(ids, 0, copy, 0, index);
+        System.arraycopy(ids, index + 1, copy, index, copy.length - index);
+        return copy;
+    }
+
+    private static int indexOf(int[] ids, int id) {
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A callable found by {@link #findCallable}
+     */
+    public static final class CallableLocation {
+        private final FileSummary file;
+        private final int callable;
+
+        CallableLocation(FileSummary file, int callable) {
+            this.file = file;
+            this.callable = callable;
+        }
+
+        public FileSummary getFile() {
+            return file;
+        }
+
+        public CallableIndex.Kind getKind() {
+            return file.callables.getKind(callable);
+        }
+
+        /**
+         * Binary name of the class the callable is compiled into
+         */
+        public String getClassName() {
+            return file.callables.getClassName(callable);
+        }
+
+        public int getBeginLine() {
+            return file.callables.getBeginLine(callable);
+        }
+
+        public int getEndLine() {
+            return file.callables.getEndLine(callable);
+        }
+
+        /**
+         * The method the callable is or is nested in, null if it is not inside a method
+         */
+        public FileSummary.MethodSummary getMethod() {
+            int method = file.callables.getMethod(callable);
+            return method < 0 ? null : file.methods.get(method);
+        }
+    }
+
+    /**
+     * Growable int list per id, used while edges are collected
+     */
+    private static class IdLists {
+        private final int[][] lists;
+        private final int[] sizes;
+
+        IdLists(int size) {
+            this.lists = new int[size][];
+            this.sizes = new int[size];
+        }
+
+        void add(int key, int value) {
+            int[] list = lists[key];
+            if (list == null) {
+                list = lists[key] = new int[4];
+            } else if (sizes[key] == list.length) {
+                list = lists[key] = Arrays.copyOf(list, list.length * 2);
+            }
+            list[sizes[key]++] = value;
+        }
+
+        /**
+         * One array per id, without duplicates and in the order values were first added
+         */
+        int[][] toArrays() {
+            int[][] arrays = new int[lists.length][];
+            int[] lastSeenIn = new int[lists.length];
+            Arrays.fill(lastSeenIn, -1);
+            for (int key = 0; key < lists.length; key++) {
+                if (lists[key] == null) {
+                    arrays[key] = NO_IDS;
+                    continue;
+                }
+                int count = 0;
+                int[] values = new int[sizes[key]];
+                for (int i = 0; i < sizes[key]; i++) {
+                    int value = lists[key][i];
+                    if (lastSeenIn[value] != key) {
+                        lastSeenIn[value] = key;
+                        values[count++] = value;
+                    }
+                }
+                arrays[key] = count == values.length ? values : Arrays.copyOf(values, count);
+            }
+            return arrays;
+        }
+    }
+}
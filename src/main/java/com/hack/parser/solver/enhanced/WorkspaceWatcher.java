@@ -0,0 +1,310 @@
+package com.hack.parser.solver.enhanced;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Keeps a {@link WorkspaceIndex} of a source root up to date while files are edited.
+ * Changes reported by a {@link WatchService} are batched, only the modified files (and files
+ * whose resolution depended on declarations that changed) are parsed again, and the result is
+ * published as a new snapshot. Readers call {@link #snapshot()} and never see a half-applied patch.
+ */
+@Slf4j
+public class WorkspaceWatcher implements Closeable {
+
+    /** How long to wait for more events after the first one before applying a batch */
+    private static final long DEBOUNCE_MILLIS = 200;
+
+    private final Path sourceRoot;
+    private final String packagePrefix;
+    private final ParallelSourceParser parser;
+    private final PackagePrefixFilter prefixFilter;
+    private final CallResolutionCache resolutionCache;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    private final Thread watchThread;
+    private final List<BiConsumer<WorkspaceIndex, WorkspaceIndex>> updateListeners = new CopyOnWriteArrayList<>();
+    private volatile WorkspaceIndex current;
+    /** Fingerprints of the declarations in {@link #current}, guarded by the lock of {@link #apply} */
+    private DeclarationFingerprints fingerprints;
+    private volatile boolean closed;
+
+    private WorkspaceWatcher(Path sourceRoot, String packagePrefix, ParallelSourceParser parser,
+                             CallResolutionCache resolutionCache, WorkspaceIndex initial,
+                             DeclarationFingerprints fingerprints) throws IOException {
+        this.sourceRoot = sourceRoot;
+        this.packagePrefix = packagePrefix;
+        this.parser = parser;
+        this.prefixFilter = new PackagePrefixFilter(packagePrefix);
+        this.resolutionCache = resolutionCache;
+        this.current = initial;
+        this.fingerprints = fingerprints;
+        this.watchService = sourceRoot.getFileSystem().newWatchService();
+        registerTree(sourceRoot);
+        this.watchThread = new Thread(this::watchLoop, "workspace-watcher");
+        this.watchThread.setDaemon(true);
+    }
+
+    /**
+     * Index the source root and start watching it for changes
+     */
+    public static WorkspaceWatcher start(Path sourceRoot, String packagePrefix, int parallelism,
+                                         ParseSummaryCache cache) throws IOException {
+        return start(sourceRoot, packagePrefix, parallelism, cache, CallResolutionCache.create());
+    }
+
+    /**
+     * @param resolutionCache call-site resolutions shared by the initial index and every update
+     */
+    public static WorkspaceWatcher start(Path sourceRoot, String packagePrefix, int parallelism,
+                                         ParseSummaryCache cache, CallResolutionCache resolutionCache)
+            throws IOException {
+        // The workers that parse the initial index parse every update too, with what they loaded still cached
+        ParallelSourceParser parser = new ParallelSourceParser(sourceRoot, parallelism);
+        WorkspaceWatcher watcher;
+        try {
+            SourceIndexer.IndexedSources sources =
+                    new SourceIndexer(sourceRoot, packagePrefix, parallelism, cache, resolutionCache).index(parser);
+            DeclarationFingerprints fingerprints =
+                    new DeclarationFingerprints(sources.getSummaries().values(), sourceRoot);
+            for (FileSummary summary : sources.getSummaries().values()) {
+                summary.dependencyFingerprints = fingerprints.forDependencies(summary);
+            }
+            watcher = new WorkspaceWatcher(sourceRoot, packagePrefix, parser, resolutionCache,
+                    WorkspaceIndex.build(sources, packagePrefix), fingerprints);
+        } catch (IOException | RuntimeException e) {
+            parser.close();
+            throw e;
+        }
+        watcher.watchThread.start();
+        log.info("Watching " + sourceRoot + " for changes");
+        return watcher;
+    }
+
+    /**
+     * The latest complete index. Hold on to the returned object for the duration of a query.
+     */
+    public WorkspaceIndex snapshot() {
+        return current;
+    }
+
+    /**
+     * Call the listener with the previous and the new snapshot of each update, before the new one is published
+     */
+    public void addUpdateListener(BiConsumer<WorkspaceIndex, WorkspaceIndex> listener) {
+        updateListeners.add(listener);
+    }
+
+    private void watchLoop() {
+        while (!closed) {
+            try {
+                WatchKey key = watchService.take();
+                Set<Path> changedFiles = new LinkedHashSet<>();
+                boolean overflow = drain(key, changedFiles);
+
+                // Editors tend to produce several events per save, so collect them into one batch
+                while ((key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    overflow |= drain(key, changedFiles);
+                }
+
+                if (overflow) {
+                    log.info("Watch events overflowed, re-indexing " + sourceRoot);
+                    changedFiles.addAll(parser.listJavaFiles());
+                    for (String path : current.summaries.keySet()) {
+                        changedFiles.add(Paths.get(path));
+                    }
+                }
+                if (!changedFiles.isEmpty()) {
+                    apply(changedFiles);
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            } catch (Exception e) {
+                log.info("Failed to update index: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return true if events were lost and the whole tree has to be rescanned
+     */
+    private boolean drain(WatchKey key, Set<Path> changedFiles) throws IOException {
+        Path directory = watchedDirectories.get(key);
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            if (directory == null) {
+                continue;
+            }
+            Path changed = directory.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(changed)) {
+                // New packages have to be watched too, and may already contain files
+                registerTree(changed);
+                try (Stream<Path> paths = Files.walk(changed)) {
+                    changedFiles.addAll(paths.filter(path -> path.toString().endsWith(".java"))
+                            .collect(Collectors.toList()));
+                }
+            } else if (changed.toString().endsWith(".java")) {
+                changedFiles.add(changed);
+            } else if (event.kind() == ENTRY_DELETE) {
+                // A deleted directory takes all its files with it
+                String prefix = changed.toString() + changed.getFileSystem().getSeparator();
+                for (String path : current.summaries.keySet()) {
+                    if (path.startsWith(prefix)) {
+                        changedFiles.add(Paths.get(path));
+                    }
+                }
+            }
+        }
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+        return overflow;
+    }
+
+    /**
+     * Re-parse the changed files and publish a patched snapshot. Updates are applied one at a time.
+     */
+    synchronized void apply(Set<Path> changedFiles) throws IOException {
+        WorkspaceIndex base = current;
+
+        Set<String> removed = new HashSet<>();
+        List<Path> present = new ArrayList<>();
+        for (Path file : changedFiles) {
+            if (Files.isRegularFile(file)) {
+                present.add(file);
+            } else if (base.summaries.containsKey(file.toString())) {
+                removed.add(file.toString());
+            }
+        }
+        // Files outside the prefix are not indexed, but their edits can still invalidate dependents below
+        Map<Path, String> contents = new HashMap<>(prefixFilter.select(parser, present));
+        List<Path> existing = new ArrayList<>(contents.keySet());
+        for (Path file : present) {
+            if (!contents.containsKey(file) && base.summaries.containsKey(file.toString())) {
+                // Moved out of the package prefix
+                removed.add(file.toString());
+            }
+        }
+
+        // The workers may still hold the previous version of any changed file, in or outside the prefix
+        parser.forget(changedFiles);
+
+        DeclarationFingerprints fingerprints = fingerprints(base);
+        try {
+            // Only the entries of the changed files are updated; their dependents are found through the index
+            Set<String> changedKeys = new HashSet<>();
+            for (Path file : changedFiles) {
+                changedKeys.addAll(fingerprints.sourceChanged(file));
+            }
+
+            SummaryExtractor extractor = new SummaryExtractor(packagePrefix, resolutionCache);
+            SourceIndexer.IndexedSources updated = new SourceIndexer.IndexedSources(sourceRoot);
+            List<Path> toParse = existing;
+            Set<String> attempted = new HashSet<>();
+            Set<String> removedNow = removed;
+            while (true) {
+                SourceIndexer.parseAndSummarize(parser, extractor, toParse, contents, updated);
+                Map<String, FileSummary> parsed = new HashMap<>();
+                Set<String> candidates = new HashSet<>();
+                for (Path file : toParse) {
+                    String path = file.toString();
+                    attempted.add(path);
+                    FileSummary summary = updated.summaries.get(path);
+                    if (summary == null) {
+                        // Most likely saved mid-edit; keep the last good version until it parses again
+                        log.info("Keeping previous index entry for unparseable file " + file);
+                    } else {
+                        parsed.put(path, summary);
+                        if (summary.reusedResolutions) {
+                            candidates.add(path);
+                        }
+                    }
+                }
+                changedKeys.addAll(fingerprints.update(parsed, removedNow));
+                removedNow = Collections.emptySet();
+
+                // Unchanged files whose dependencies' declarations changed must be resolved again,
+                // and so must parsed files whose calls were taken from the resolution cache
+                candidates.addAll(fingerprints.dependentsOf(changedKeys));
+                changedKeys.clear();
+                List<Path> stale = new ArrayList<>();
+                for (String path : candidates) {
+                    FileSummary summary = updated.summaries.containsKey(path) ? updated.summaries.get(path)
+                            : removed.contains(path) ? null : base.summaries.get(path);
+                    if (summary != null && (!attempted.contains(path) || summary.reusedResolutions)
+                            && !fingerprints.forDependencies(summary).equals(summary.dependencyFingerprints)) {
+                        // Read again from disk, the index no longer holds file content
+                        stale.add(Paths.get(path));
+                        if (resolutionCache != null) {
+                            resolutionCache.invalidate(summary.contentHash);
+                        }
+                    }
+                }
+                if (stale.isEmpty()) {
+                    break;
+                }
+                log.info("Re-parsing " + stale.size() + " file(s) with changed dependencies");
+                toParse = stale;
+            }
+
+            for (FileSummary summary : updated.summaries.values()) {
+                summary.dependencyFingerprints = fingerprints.forDependencies(summary);
+                if (resolutionCache != null && summary.callsResolved) {
+                    resolutionCache.commit(summary.contentHash, summary.dependencyFingerprints);
+                }
+            }
+            WorkspaceIndex patched = base.patch(updated.summaries, removed);
+            // Caches are invalidated first, so no query sees the new snapshot together with stale results
+            for (BiConsumer<WorkspaceIndex, WorkspaceIndex> listener : updateListeners) {
+                listener.accept(base, patched);
+            }
+            current = patched;
+        } catch (IOException | RuntimeException e) {
+            // Some entries may already describe files that were not published; start over from the snapshot
+            this.fingerprints = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Fingerprints of the declarations in the snapshot, rebuilt only if an earlier update failed
+     */
+    private DeclarationFingerprints fingerprints(WorkspaceIndex snapshot) {
+        if (fingerprints == null) {
+            fingerprints = new DeclarationFingerprints(snapshot.summaries.values(), sourceRoot);
+        }
+        return fingerprints;
+    }
+
+    private void registerTree(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path directory : paths.filter(Files::isDirectory).collect(Collectors.toList())) {
+                WatchKey key = directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                watchedDirectories.put(key, directory);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+        watchThread.interrupt();
+        parser.close();
+    }
+}
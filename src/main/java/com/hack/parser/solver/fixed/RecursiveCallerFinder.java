@@ -1,189 +1,172 @@
 package com.hack.parser.solver.fixed;
 
 import com.github.javaparser.JavaParser;
-import com.github.javaparser.ParserConfiguration;
-import com.github.javaparser.ParseResult;
 import com.github.javaparser.ast.CompilationUnit;
-import com.github.javaparser.ast.PackageDeclaration;
 import com.github.javaparser.ast.body.*;
-import com.github.javaparser.ast.expr.MethodCallExpr;
-import com.github.javaparser.resolution.UnsolvedSymbolException;
-import com.github.javaparser.resolution.declarations.*;
-import com.github.javaparser.symbolsolver.JavaSymbolSolver;
-import com.github.javaparser.symbolsolver.resolution.typesolvers.*;
-
-import java.io.IOException;
+import com.hack.parser.solver.enhanced.CallGraph;
+import com.hack.parser.solver.enhanced.CallResolutionCache;
+import com.hack.parser.solver.enhanced.FileSummary;
+import com.hack.parser.solver.enhanced.ParallelSourceParser;
+import com.hack.parser.solver.enhanced.ParseSummaryCache;
+import com.hack.parser.solver.enhanced.SignatureTable;
+import com.hack.parser.solver.enhanced.SourceIndexer;
+import com.hack.parser.solver.enhanced.WorkspaceIndex;
+
+import java.io.*;
+import java.nio.charset.Charset;
 import java.nio.file.*;
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 
 public class RecursiveCallerFinder {
 
-
-
-    // 1. Parse all Java files under sourceRoot into symbol-resolved CompilationUnits.
-    public static Map<String, CompilationUnit> parseAllJavaFiles(Path sourceRoot) throws IOException {
-        Map<String, CompilationUnit> parsedCUs = new HashMap<>();
-        CombinedTypeSolver typeSolver = new CombinedTypeSolver(
-                new ReflectionTypeSolver(),                       // resolves JDK types
-                new JavaParserTypeSolver(sourceRoot.toFile())     // resolves project source
-        );
-        JavaSymbolSolver symbolSolver = new JavaSymbolSolver(typeSolver);
-        ParserConfiguration config = new ParserConfiguration()
-                .setSymbolResolver(symbolSolver);
-        JavaParser parser = new JavaParser(config);
-
-        // Walk directory for .java files
-        Files.walk(sourceRoot)
-                .filter(path -> path.toString().endsWith(".java"))
-                .forEach(javaFile -> {
-                    try {
-                        ParseResult<CompilationUnit> result = parser.parse(javaFile);
-                        if (result.isSuccessful() && result.getResult().isPresent()) {
-                            parsedCUs.put(javaFile.toAbsolutePath().toString(), result.getResult().get());
-                        }
-                    } catch (IOException e) {
-                        System.err.println("Failed to parse " + javaFile + ": " + e.getMessage());
-                    }
-                });
-
-        return parsedCUs;
-    }
-
     /**
-     * Build a reverse call graph (calleeSignature -> set of callerSignatures)
-     * for all methods in packagePrefix (e.g., "com.hack.parser.test").
+     * Signature→MethodDeclaration map for the target and every transitive caller of it.
+     * Only files containing those methods are parsed, each once, which matters when the
+     * summaries came from the parse cache. The index itself holds no ASTs, so the
+     * declarations live only as long as the returned map.
      */
-    public static Map<String, Set<String>> buildReverseCallGraph(
-            Map<String, CompilationUnit> compilationUnits, String packagePrefix
+    static Map<String, MethodDeclaration> loadCallerDeclarations(
+            String targetSignature,
+            CallGraph callGraph,
+            SourceIndexer.IndexedSources sources
     ) {
-        Map<String, Set<String>> calleeToCallers = new HashMap<>();
-
-        for (CompilationUnit cu : compilationUnits.values()) {
-            // 2a. Skip CUs not in desired package
-            Optional<PackageDeclaration> pkg = cu.getPackageDeclaration();
-            if (pkg.isEmpty() || !pkg.get().getNameAsString().startsWith(packagePrefix)) {
-                continue; // skip unrelated packages :contentReference[oaicite:12]{index=12}
+        Map<String, String> signatureToFile = new HashMap<>();
+        for (FileSummary summary : sources.getSummaries().values()) {
+            for (FileSummary.MethodSummary method : summary.getMethods()) {
+                if (method.isResolved()) {
+                    signatureToFile.put(method.getSignature(), summary.getPath());
+                }
             }
+        }
 
-            // 2b. Collect all top‐level & nested class/interface declarations
-            List<ClassOrInterfaceDeclaration> classes = cu.findAll(ClassOrInterfaceDeclaration.class)
-                    .stream()
-                    .filter(coid -> {
-                        Optional<String> fq = coid.getFullyQualifiedName();
-                        return fq.isPresent() && fq.get().startsWith(packagePrefix);
-                    })
-                    .collect(Collectors.toList());
-
-            for (ClassOrInterfaceDeclaration coid : classes) {
-                // 2c. For each method, build reverse edges for every MethodCallExpr inside it
-                for (MethodDeclaration method : coid.getMethods()) {
-                    //String callerFQN = method.resolve().getQualifiedSignature();
-
-                    ResolvedMethodDeclaration resolved = method.resolve();
-
-                    String className = resolved.getPackageName() + "." + resolved.getClassName();
-                    String methodName = resolved.getName();
-
-                    String callerFQN = className + "." + methodName + "(" +
-                            IntStream.range(0, resolved.getNumberOfParams())
-                                    .mapToObj(i -> resolved.getParam(i).describeType())
-                                    .collect(Collectors.joining(", ")) + ")";
-
-
-                    // Visit every method call expression in this method body
-                    method.findAll(MethodCallExpr.class).forEach(callExpr -> {
-                        try {
-                            ResolvedMethodDeclaration resolvedCallee = callExpr.resolve();
-                            String calleeFQN = resolvedCallee.getQualifiedSignature();
-                            // Register caller -> callee in reverse map: callee->caller
-                            calleeToCallers
-                                    .computeIfAbsent(calleeFQN, k -> new HashSet<>())
-                                    .add(callerFQN);
-                        } catch (UnsolvedSymbolException use) {
-                            // skip calls that cannot be resolved :contentReference[oaicite:13]{index=13}
-                        } catch (Exception ex) {
-                            // skip any other resolution failures
-                        }
-                    });
+        // File → signatures needed from it: the target, then breadth-first over the callers, by id
+        Map<String, Set<String>> neededByFile = new LinkedHashMap<>();
+        addNeeded(targetSignature, signatureToFile, neededByFile);
+        SignatureTable signatures = callGraph.getSignatures();
+        int target = signatures.id(targetSignature);
+        if (target >= 0) {
+            int[] pending = new int[callGraph.size()];
+            int head = 0;
+            int tail = 0;
+            BitSet seen = new BitSet(callGraph.size());
+            pending[tail++] = target;
+            seen.set(target);
+            while (head < tail) {
+                int current = pending[head++];
+                for (int i = callGraph.callersFrom(current); i < callGraph.callersTo(current); i++) {
+                    int caller = callGraph.caller(i);
+                    if (!seen.get(caller)) {
+                        seen.set(caller);
+                        pending[tail++] = caller;
+                        addNeeded(signatures.name(caller), signatureToFile, neededByFile);
+                    }
                 }
             }
         }
 
-        return calleeToCallers;
+        Map<String, MethodDeclaration> signatureToNode = new HashMap<>();
+        JavaParser parser = ParallelSourceParser.createParser(sources.getSourceRoot());
+        neededByFile.forEach((path, needed) -> {
+            CompilationUnit cu = sources.getCompilationUnit(path, parser);
+            if (cu == null) {
+                return;
+            }
+            for (MethodDeclaration method : cu.findAll(MethodDeclaration.class)) {
+                String sig = SourceIndexer.signatureOf(method);
+                if (needed.contains(sig)) {
+                    signatureToNode.put(sig, method);
+                }
+            }
+        });
+        return signatureToNode;
     }
 
-
-    // … (parseAllJavaFiles and buildReverseCallGraph as above) …
+    private static void addNeeded(String signature, Map<String, String> signatureToFile,
+                                  Map<String, Set<String>> neededByFile) {
+        String path = signatureToFile.get(signature);
+        if (path != null) {
+            neededByFile.computeIfAbsent(path, p -> new HashSet<>()).add(signature);
+        }
+    }
 
     /**
-     * 3. Recursively collect and print all ordered caller chains from 'currentSig' up to methods
-     * with no further callers. For each signature in a completed chain, print its full method source.
+     * 3. Collect all ordered caller chains from the target up to methods with no further callers.
+     * For each signature in a completed chain, append its full method source.
      *
-     * @param currentSig       the current callee signature (starts as the targetSignature)
-     * @param reverseCallGraph mapping each calleeSignature to its direct callers
-     * @param pathSoFar        a Deque representing the chain from target → ... → currentSig
-     * @param visited          signatures already in pathSoFar, to avoid cycles
+     * @param target           id of the target method, -1 if it is not in the graph
+     * @param callGraph        direct calls, whose callers are followed
      * @param signatureToNode  a map from methodSignature → MethodDeclaration (parsed AST node)
      * @return
      */
     public static String collectCallerPaths(
-            String currentSig,
-            Map<String, Set<String>> reverseCallGraph,
-            Deque<String> pathSoFar,
-            Set<String> visited,
+            int target,
+            CallGraph callGraph,
             Map<String, MethodDeclaration> signatureToNode
     ) {
+        StringBuilder callerPaths = new StringBuilder();
+        try {
+            collectCallerPaths(target, callGraph, signatureToNode, callerPaths);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // a StringBuilder does not throw
+        }
+        return callerPaths.toString();
+    }
 
-        // Look up direct callers of currentSig
-        Set<String> directCallers = reverseCallGraph.getOrDefault(currentSig, Collections.emptySet());
-
-        // Base case: if no callers, we have a complete path
-        if (directCallers.isEmpty()) {
-            StringBuilder sb = new StringBuilder();
-
-            // Print the entire chain, with full source for each method in order
-            //System.out.println("=== Complete Caller Chain ===");
-            sb.append("=== Complete Caller Chain ===\n");
-            for (String sig : pathSoFar) {
-                MethodDeclaration node = signatureToNode.get(sig);
-                if (node != null) {
-                    // Print signature on one line, then full method (including comments) in a block
-                    sb.append("\n--- ").append(sig).append(" ---\n").append(node.toString()).append("\n");
-                    //System.out.println("\n--- " + sig + " ---");
-                    //System.out.println(node.toString()); // includes comments and JavaDocs :contentReference[oaicite:5]{index=5}
-                } else {
-                    sb.append("\n--- ").append(sig).append(" (node not found in AST) ---\n");
-                    //System.out.println("\n--- " + sig + " (node not found in AST) ---");
-                }
+    /**
+     * Same as above, appending every chain to one sink as it completes, e.g. a writer on stdout so
+     * the first chains are printed before the rest are found. The chains, their order and the
+     * handling of cycles are those of {@link CallGraph#callerPathIterator}; each method's source is
+     * rendered once.
+     */
+    public static void collectCallerPaths(
+            int target,
+            CallGraph callGraph,
+            Map<String, MethodDeclaration> signatureToNode,
+            Appendable out
+    ) throws IOException {
+        SignatureTable signatures = callGraph.getSignatures();
+        Map<String, String> renderedSources = new HashMap<>();
+        List<Integer> previous = Collections.singletonList(target);
+        for (Iterator<List<Integer>> chains = callGraph.callerPathIterator(target); chains.hasNext(); ) {
+            List<Integer> chain = chains.next();
+            int common = 0;
+            while (common < previous.size() && common < chain.size() && previous.get(common).equals(chain.get(common))) {
+                common++;
             }
-            sb.append("=============================\n");
-            //System.out.println("=============================\n");
-            return sb.toString();
+            // A blank line per caller backed out of and per caller gone into since the last chain
+            appendLines(previous.size() - common + chain.size() - common, out);
+            List<String> path = new ArrayList<>(chain.size());
+            for (int method : chain) {
+                path.add(signatures.name(method));
+            }
+            appendChain(path, signatureToNode, renderedSources, out);
+            previous = chain;
         }
+        appendLines(previous.size() - 1, out);
+    }
 
-        // Otherwise, for each direct caller, recurse further
-        StringBuilder callerPaths = new StringBuilder();
-        for (String callerSig : directCallers) {
-            if (visited.contains(callerSig)) {
-                continue; // avoid infinite loops caused by recursion :contentReference[oaicite:6]{index=6}
+    private static void appendLines(int count, Appendable out) throws IOException {
+        for (int i = 0; i < count; i++) {
+            out.append("\n");
+        }
+    }
+
+    private static void appendChain(List<String> path, Map<String, MethodDeclaration> signatureToNode,
+                                    Map<String, String> renderedSources, Appendable out) throws IOException {
+        // The entire chain, with full source for each method in order
+        out.append("=== Complete Caller Chain ===\n");
+        for (String sig : path) {
+            MethodDeclaration node = signatureToNode.get(sig);
+            if (node != null) {
+                // Signature on one line, then full method (including comments) in a block
+                String source = renderedSources.computeIfAbsent(sig, s -> node.toString());
+                out.append("\n--- ").append(sig).append(" ---\n").append(source).append("\n");
+            } else {
+                out.append("\n--- ").append(sig).append(" (node not found in AST) ---\n");
             }
-            // Mark as visited, push to path
-            visited.add(callerSig);
-            pathSoFar.addLast(callerSig);
-
-            // Recurse on the callerSig
-            callerPaths.append("\n")
-                    .append(collectCallerPaths(callerSig, reverseCallGraph, pathSoFar, visited, signatureToNode))
-                    .append("\n");
-
-            // Backtrack
-            pathSoFar.removeLast();
-            visited.remove(callerSig);
         }
-        return callerPaths.toString();
+        out.append("=============================\n");
     }
 
     /**
@@ -200,35 +183,31 @@ public class RecursiveCallerFinder {
 //    }
 
     public static void calculatePrintCallerPaths(Path sourceRoot, String packagePrefix, String targetSignature) throws IOException {
-        // 4.1 Parse all .java files under src/main/java
-        Map<String, CompilationUnit> allCUs = parseAllJavaFiles(sourceRoot);
-        // 4.2 Build reverse call graph for everything in com.hack.parser.test
-        Map<String, Set<String>> reverseGraph = buildReverseCallGraph(allCUs, packagePrefix);
-        // 4.3 Build a signature→MethodDeclaration map for quick lookup
-        Map<String, MethodDeclaration> signatureToNode = new HashMap<>();
-        allCUs.values().forEach(cu -> {
-            cu.findAll(MethodDeclaration.class).forEach(method -> {
-                try {
-                    ResolvedMethodDeclaration rmd = method.resolve();
-                    // e.g. com.hack.parser.test.TestSample.methodC(java.lang.String)
-                    String sig = rmd.getQualifiedSignature();
-                    signatureToNode.put(sig, method);
-                } catch (Exception ignore) {
-                    // skip unresolved methods
-                }
-            });
-        });
-
-        // 4.4 Prepare the DFS: pathSoFar (start with only the target), and visited set
-        Deque<String> pathSoFar = new ArrayDeque<>();
-        pathSoFar.addLast(targetSignature);
-
-        Set<String> visited = new HashSet<>();
-        visited.add(targetSignature);
-
-        // 4.5 Recursively collect and print each ordered caller chain
+        // 4.1 Summarize the .java files under src/main/java that are inside packagePrefix,
+        //     reusing the parse cache when -Dparser.cacheDir is set and resolved call sites
+        //     when -Dparser.resolutionCacheDir is set
+        SourceIndexer.IndexedSources sources = new SourceIndexer(sourceRoot, packagePrefix,
+                ParallelSourceParser.defaultParallelism(), ParseSummaryCache.fromSystemProperty(),
+                CallResolutionCache.fromSystemProperty()).index();
+        // 4.2 Build the call graph for everything in com.hack.parser.test; its reverse direction
+        //     holds the callers of every method
+        CallGraph callGraph = WorkspaceIndex.build(sources, packagePrefix).getDirectCalls();
+        // 4.3 Build a signature→MethodDeclaration map for the methods that can appear in a chain
+        Map<String, MethodDeclaration> signatureToNode = loadCallerDeclarations(targetSignature, callGraph, sources);
+
+        int target = callGraph.getSignatures().id(targetSignature);
+
+        // 4.4 Print each ordered caller chain as soon as it is complete
         System.out.println("Finding all ordered caller chains for: " + targetSignature + "\n");
-        String callerPaths = collectCallerPaths(targetSignature, reverseGraph, pathSoFar, visited, signatureToNode);
-        System.out.println("callerPaths:" + callerPaths);
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, Charset.defaultCharset()));
+        out.write("callerPaths:");
+        if (target >= 0) {
+            collectCallerPaths(target, callGraph, signatureToNode, out);
+        } else {
+            // Nothing calls a method the graph does not know, so it is a chain of its own
+            appendChain(Collections.singletonList(targetSignature), signatureToNode, new HashMap<>(), out);
+        }
+        out.write(System.lineSeparator());
+        out.flush();
     }
 }
\ No newline at end of file
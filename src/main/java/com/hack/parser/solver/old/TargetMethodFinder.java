@@ -1,10 +1,8 @@
 package com.hack.parser.solver.old;
 
-import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
 import com.github.javaparser.ast.body.MethodDeclaration;
-import com.github.javaparser.ast.NodeList;
-import com.github.javaparser.ast.body.TypeDeclaration;
 import com.github.javaparser.ast.CompilationUnit;
+import com.hack.parser.solver.enhanced.CallableIndex;
 
 import java.util.Map;
 import java.util.Optional;
@@ -13,8 +11,9 @@ public class TargetMethodFinder {
 
     /**
      * Finds the MethodDeclaration within the specified class that contains the given line number.
+     * A line in a lambda or in a local or anonymous class belongs to the method around it.
      *
-     * @param fullyQualifiedClassName e.g. "com.example.MyClass"
+     * @param fullyQualifiedClassName e.g. "com.example.MyClass", "com.example.MyClass.Inner" or "com.example.MyClass$1"
      * @param lineNumber              the line number to locate
      * @param compilationUnits        map from file path to CompilationUnit
      * @return Optional containing the MethodDeclaration if found; empty otherwise
@@ -24,49 +23,20 @@ public class TargetMethodFinder {
             int lineNumber,
             Map<String, CompilationUnit> compilationUnits
     ) {
-        // Extract simple class name (after last dot) and expected package name
-        String simpleClassName;
-        String expectedPackage = "";
-        if (fullyQualifiedClassName.contains(".")) {
-            int lastDot = fullyQualifiedClassName.lastIndexOf('.');
-            expectedPackage = fullyQualifiedClassName.substring(0, lastDot);
-            simpleClassName = fullyQualifiedClassName.substring(lastDot + 1);
-        } else {
-            simpleClassName = fullyQualifiedClassName;
-        }
-
         // Iterate over all parsed CUs to find the one matching the class
         for (Map.Entry<String, CompilationUnit> entry : compilationUnits.entrySet()) {
             CompilationUnit cu = entry.getValue();
-            // Check package declaration matches (if any)
-            Optional<String> pkgName = cu.getPackageDeclaration().map(pd -> pd.getNameAsString());
-            if (!expectedPackage.isEmpty()) {
-                if (pkgName.isEmpty() || !pkgName.get().equals(expectedPackage)) {
-                    continue;
-                }
+            // Check the class name starts with the package (if any)
+            String packagePrefix = cu.getPackageDeclaration().map(pd -> pd.getNameAsString() + ".").orElse("");
+            if (!fullyQualifiedClassName.startsWith(packagePrefix)) {
+                continue;
             }
 
-            // Within that CU, look for a top-level type with the matching simple name
-            NodeList<TypeDeclaration<?>> types = cu.getTypes();
-            for (TypeDeclaration<?> typeDec : types) {
-                if (typeDec instanceof ClassOrInterfaceDeclaration) {
-                    ClassOrInterfaceDeclaration cid = (ClassOrInterfaceDeclaration) typeDec;
-                    if (cid.getNameAsString().equals(simpleClassName)) {
-                        // Found the target class––search its methods
-                        for (MethodDeclaration method : cid.getMethods()) {
-                            if (method.getRange().isPresent()) {
-                                int beginLine = method.getRange().get().begin.line;
-                                int endLine = method.getRange().get().end.line;
-                                // Check if the given lineNumber falls within [beginLine, endLine]
-                                if (lineNumber >= beginLine && lineNumber <= endLine) {
-                                    return Optional.of(method);
-                                }
-                            }
-                        }
-                        // If we didn’t find it among direct methods, maybe nested/inner classes?
-                        // For simplicity, we only check top-level class methods here.
-                    }
-                }
+            // Innermost method around the line in the class, which may be nested, local or anonymous
+            Optional<MethodDeclaration> method =
+                    CallableIndex.findMethodByLine(cu, fullyQualifiedClassName, lineNumber);
+            if (method.isPresent()) {
+                return method;
             }
         }
 
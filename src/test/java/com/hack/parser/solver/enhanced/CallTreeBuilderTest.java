@@ -0,0 +1,136 @@
+package com.hack.parser.solver.enhanced;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static com.hack.parser.solver.enhanced.TestSources.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The memoized tree, expanded, must read exactly like the tree of a plain depth-first walk that
+ * builds every path on its own.
+ */
+class CallTreeBuilderTest {
+
+    @Test
+    void memoizedTreeMatchesPlainWalk(@TempDir Path sourceRoot) throws IOException {
+        SyntheticCodebase.Generated generated = generateCorpus(sourceRoot);
+        MethodCallFinder finder = new MethodCallFinder(sourceRoot, generated.getPackagePrefix(), PARALLELISM);
+        WorkspaceIndex index = finder.buildIndex();
+
+        int shared = 0;
+        for (FileSummary summary : new TreeMap<>(index.summaries).values()) {
+            for (FileSummary.MethodSummary method : summary.getMethods()) {
+                int target = index.signatures.id(method.getSignature());
+                MethodCallFinder.CallTreeNode tree = finder.buildCallTree(index, target);
+                assertEquals(expand(plainTree(index, target)), expand(tree), method.getSignature());
+                shared += sharedNodes(tree);
+            }
+        }
+        // The corpus has diamonds, so some subtrees must have been reused rather than built again
+        assertTrue(shared > 0, "no subtree was shared");
+    }
+
+    /**
+     * The tree {@link MethodCallFinder#buildCallTree} describes, built without reusing anything
+     */
+    private static MethodCallFinder.CallTreeNode plainTree(WorkspaceIndex index, int target) {
+        MethodCallFinder.CallTreeNode root = new MethodCallFinder.CallTreeNode();
+        root.method = "ROOT";
+        List<Integer> entryPoints = new ArrayList<>();
+        for (int method = 0; method < index.entryPointRank.length; method++) {
+            if (index.entryPointRank[method] >= 0) {
+                entryPoints.add(method);
+            }
+        }
+        entryPoints.sort(Comparator.comparingInt(method -> index.entryPointRank[method]));
+        for (int entryPoint : entryPoints) {
+            MethodCallFinder.CallTreeNode node = plainSubtree(index, target, entryPoint, new BitSet());
+            if (node != null) {
+                root.children.add(node);
+            }
+        }
+        if (root.children.isEmpty()) {
+            for (int method : index.callers) {
+                MethodCallFinder.CallTreeNode node = plainSubtree(index, target, method, new BitSet());
+                if (node != null) {
+                    root.children.add(node);
+                    break;
+                }
+            }
+        }
+        return root;
+    }
+
+    private static MethodCallFinder.CallTreeNode plainSubtree(WorkspaceIndex index, int target, int method,
+                                                              BitSet onPath) {
+        if (onPath.get(method)) {
+            return null;
+        }
+        MethodCallFinder.CallTreeNode node = new MethodCallFinder.CallTreeNode();
+        node.method = index.signatures.name(method);
+        node.file = index.methodFile[method] < 0 ? "unknown" : index.filePaths.name(index.methodFile[method]);
+        node.line = index.methodLine[method];
+        if (method == target) {
+            return node;
+        }
+        onPath.set(method);
+        CallGraph callGraph = index.callGraph;
+        for (int i = callGraph.calleesFrom(method); i < callGraph.calleesTo(method); i++) {
+            int callee = callGraph.callee(i);
+            if (index.signatures.name(callee).startsWith(index.packagePrefix)) {
+                MethodCallFinder.CallTreeNode child = plainSubtree(index, target, callee, onPath);
+                if (child != null) {
+                    node.children.add(child);
+                }
+            }
+        }
+        onPath.clear(method);
+        return node.children.isEmpty() ? null : node;
+    }
+
+    /**
+     * One line per node of the fully expanded tree, indented by depth
+     */
+    private static String expand(MethodCallFinder.CallTreeNode root) {
+        StringBuilder out = new StringBuilder();
+        Deque<MethodCallFinder.CallTreeNode> nodes = new ArrayDeque<>();
+        Deque<Integer> depths = new ArrayDeque<>();
+        nodes.push(root);
+        depths.push(0);
+        while (!nodes.isEmpty()) {
+            MethodCallFinder.CallTreeNode node = nodes.pop();
+            int depth = depths.pop();
+            out.append("  ".repeat(depth)).append(node.method).append(' ').append(node.file).append(':')
+                    .append(node.line).append('\n');
+            for (int i = node.children.size() - 1; i >= 0; i--) {
+                nodes.push(node.children.get(i));
+                depths.push(depth + 1);
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Child links to a node that was already reached through another link
+     */
+    private static int sharedNodes(MethodCallFinder.CallTreeNode root) {
+        Set<MethodCallFinder.CallTreeNode> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<MethodCallFinder.CallTreeNode> pending = new ArrayDeque<>();
+        pending.push(root);
+        int shared = 0;
+        while (!pending.isEmpty()) {
+            MethodCallFinder.CallTreeNode node = pending.pop();
+            if (seen.add(node)) {
+                node.children.forEach(pending::push);
+            } else {
+                shared++;
+            }
+        }
+        return shared;
+    }
+}
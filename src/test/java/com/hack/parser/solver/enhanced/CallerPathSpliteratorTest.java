@@ -0,0 +1,89 @@
+package com.hack.parser.solver.enhanced;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.hack.parser.solver.enhanced.TestSources.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Caller chains must come out in the order of a plain depth-first walk however the spliterator is
+ * split, so that a parallel stream gives the same list as a sequential one.
+ */
+class CallerPathSpliteratorTest {
+
+    @Test
+    void splitsKeepEncounterOrder(@TempDir Path sourceRoot) throws IOException {
+        SyntheticCodebase.Generated generated = generateCorpus(sourceRoot);
+        CallGraph callGraph = index(sourceRoot, generated.getPackagePrefix()).callGraph;
+
+        int splits = 0;
+        for (int target = 0; target < callGraph.size(); target++) {
+            List<List<Integer>> expected = new ArrayList<>();
+            plainPaths(callGraph, new ArrayList<>(Collections.singletonList(target)), expected);
+            String name = callGraph.getSignatures().name(target);
+
+            assertEquals(expected, drain(new CallerPathSpliterator(callGraph, target)), name);
+            List<List<Integer>> split = new ArrayList<>();
+            splits += splitAll(new CallerPathSpliterator(callGraph, target), split);
+            assertEquals(expected, split, name);
+            assertEquals(expected, callGraph.callerPaths(target).parallel().collect(Collectors.toList()), name);
+
+            // Splitting part way keeps the chains already taken first
+            for (int taken = 1; taken < expected.size(); taken++) {
+                CallerPathSpliterator spliterator = new CallerPathSpliterator(callGraph, target);
+                List<List<Integer>> paths = new ArrayList<>();
+                for (int i = 0; i < taken; i++) {
+                    assertTrue(spliterator.tryAdvance(paths::add));
+                }
+                splitAll(spliterator, paths);
+                assertEquals(expected, paths, name + " split after " + taken);
+            }
+        }
+        assertTrue(splits > 0, "nothing was split");
+    }
+
+    /**
+     * Chains from the method at the end of the path, callers in graph order, skipping callers on the path
+     */
+    private static void plainPaths(CallGraph callGraph, List<Integer> path, List<List<Integer>> paths) {
+        int method = path.get(path.size() - 1);
+        if (callGraph.callerCount(method) == 0) {
+            paths.add(new ArrayList<>(path));
+            return;
+        }
+        for (int i = callGraph.callersFrom(method); i < callGraph.callersTo(method); i++) {
+            int caller = callGraph.caller(i);
+            if (!path.contains(caller)) {
+                path.add(caller);
+                plainPaths(callGraph, path, paths);
+                path.remove(path.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * Split as far as possible, adding the chains of each prefix before those of the rest
+     *
+     * @return number of successful splits
+     */
+    private static int splitAll(Spliterator<List<Integer>> spliterator, List<List<Integer>> paths) {
+        Spliterator<List<Integer>> prefix = spliterator.trySplit();
+        if (prefix == null) {
+            paths.addAll(drain(spliterator));
+            return 0;
+        }
+        return 1 + splitAll(prefix, paths) + splitAll(spliterator, paths);
+    }
+
+    private static List<List<Integer>> drain(Spliterator<List<Integer>> spliterator) {
+        List<List<Integer>> paths = new ArrayList<>();
+        spliterator.forEachRemaining(path -> paths.add(new ArrayList<>(path)));
+        return paths;
+    }
+}
@@ -0,0 +1,46 @@
+package com.hack.parser.solver.enhanced;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static com.hack.parser.solver.enhanced.TestSources.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Files are selected by their package line wherever it is, and selected files come with their whole
+ * content, however little of them was needed to find the package.
+ */
+class PackagePrefixFilterTest {
+
+    @Test
+    void selectsByPackageLine(@TempDir Path sourceRoot) throws IOException {
+        String longHeader = "/*\n" + " * License text\n".repeat(PackagePrefixFilter.SNIFF_BYTES / 8) + " */\n";
+        String longBody = "package a.b;\npublic class Long {\n"
+                + "    // padding\n".repeat(PackagePrefixFilter.SNIFF_BYTES / 8) + "}\n";
+        Map<Path, String> files = new LinkedHashMap<>();
+        files.put(sourceRoot.resolve("a/b/Small.java"), "package a.b;\npublic class Small {\n}\n");
+        files.put(sourceRoot.resolve("a/b/Long.java"), longBody);
+        files.put(sourceRoot.resolve("a/b/Header.java"), longHeader + "package a.b;\npublic class Header {\n}\n");
+        files.put(sourceRoot.resolve("a/c/Other.java"), longHeader + "package a.c;\npublic class Other {\n}\n");
+        // Laid out under a.b but declaring another package
+        files.put(sourceRoot.resolve("a/b/Moved.java"), "package x.y;\npublic class Moved {\n}\n");
+        files.put(sourceRoot.resolve("Default.java"), "public class Default {\n}\n");
+        for (Map.Entry<Path, String> file : files.entrySet()) {
+            write(file.getKey(), file.getValue());
+        }
+
+        try (ParallelSourceParser parser = new ParallelSourceParser(sourceRoot, PARALLELISM)) {
+            Map<Path, String> selected = new PackagePrefixFilter("a.b").select(parser, new ArrayList<>(files.keySet()));
+            List<Path> expected = Arrays.asList(sourceRoot.resolve("a/b/Small.java"),
+                    sourceRoot.resolve("a/b/Long.java"), sourceRoot.resolve("a/b/Header.java"));
+            assertEquals(expected, new ArrayList<>(selected.keySet()));
+            for (Path file : expected) {
+                assertEquals(files.get(file), selected.get(file));
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.hack.parser.solver.enhanced;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static com.hack.parser.solver.enhanced.TestSources.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A cached result must be dropped when a method its target can be reached from changes, even if
+ * that method is not in the cached tree, and kept when nothing of the sort changed.
+ */
+class QueryResultCacheTest {
+
+    @Test
+    void newCallerOfMethodOutsideTreeInvalidates(@TempDir Path sourceRoot) throws IOException {
+        // Only E.main() is an entry point; the cycle a() <-> b() reaches t() too but has no caller
+        Path p = sourceRoot.resolve("p");
+        write(p.resolve("E.java"), "package p;\npublic class E {\n    public static void main(String[] args) {\n"
+                + "        new T().t();\n    }\n}\n");
+        write(p.resolve("A.java"), "package p;\npublic class A {\n    public void a() {\n        new B().b();\n    }\n}\n");
+        write(p.resolve("B.java"), "package p;\npublic class B {\n    public void b() {\n        new A().a();\n"
+                + "        new T().t();\n    }\n}\n");
+        write(p.resolve("T.java"), "package p;\npublic class T {\n    public void t() {\n    }\n}\n");
+
+        QueryResultCache cache = new QueryResultCache(1024 * 1024);
+        MethodCallFinder finder = new MethodCallFinder(sourceRoot, "p", PARALLELISM);
+        finder.setResultCache(cache);
+        try (WorkspaceWatcher watcher = WorkspaceWatcher.start(sourceRoot, "p", PARALLELISM, null)) {
+            watcher.addUpdateListener(cache::invalidate);
+            assertEquals(Collections.singletonList("p.E.main(java.lang.String[])"), entryPoints(finder, watcher));
+            assertEquals(1, cache.size());
+
+            // Nothing that reaches t() changes, so the result is still served from the cache
+            Path unrelated = p.resolve("U.java");
+            write(unrelated, "package p;\npublic class U {\n    public void u() {\n    }\n}\n");
+            watcher.apply(Collections.singleton(unrelated));
+            long hits = cache.getHitCount();
+            assertEquals(Collections.singletonList("p.E.main(java.lang.String[])"), entryPoints(finder, watcher));
+            assertEquals(hits + 1, cache.getHitCount());
+
+            // A new entry point calling into the cycle changes only n() and a(), neither in the tree
+            Path added = p.resolve("N.java");
+            write(added, "package p;\npublic class N {\n    public void n() {\n        new A().a();\n    }\n}\n");
+            watcher.apply(Collections.singleton(added));
+            assertEquals(0, cache.size());
+            assertEquals(sorted(Arrays.asList("p.E.main(java.lang.String[])", "p.N.n()")),
+                    sorted(entryPoints(finder, watcher)));
+        }
+    }
+
+    private static List<String> entryPoints(MethodCallFinder finder, WorkspaceWatcher watcher) {
+        CallerChains chains = finder.queryCallerChains(watcher.snapshot(), "p.T.t()").orElseThrow();
+        List<String> entryPoints = new ArrayList<>();
+        chains.rootNode.children.forEach(node -> entryPoints.add(node.method));
+        return entryPoints;
+    }
+}
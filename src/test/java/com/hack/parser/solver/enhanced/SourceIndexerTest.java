@@ -0,0 +1,79 @@
+package com.hack.parser.solver.enhanced;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static com.hack.parser.solver.enhanced.TestSources.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A file whose summary and call resolutions are cached must be resolved again when a declaration
+ * it depends on changes, even though its own content did not.
+ */
+class SourceIndexerTest {
+
+    private static final String X = "package p;\npublic class X {\n    public void run() {\n    }\n}\n";
+    private static final String Y = "package p;\npublic class Y {\n    public void run() {\n    }\n}\n";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void returnTypeChangeInvalidatesCachedCaller() throws IOException {
+        assertReresolved("public class A {\n    public X get() {\n        return new X();\n    }\n}\n",
+                "public class A {\n    public Y get() {\n        return new Y();\n    }\n}\n",
+                "new A().get().run();", "p.A.get()");
+    }
+
+    @Test
+    void fieldTypeChangeInvalidatesCachedCaller() throws IOException {
+        assertReresolved("public class A {\n    public X field = new X();\n}\n",
+                "public class A {\n    public Y field = new Y();\n}\n",
+                "new A().field.run();");
+    }
+
+    @Test
+    void superclassChangeInvalidatesCachedCaller() throws IOException {
+        assertReresolved("public class A extends X {\n}\n", "public class A extends Y {\n}\n", "new A().run();");
+    }
+
+    /**
+     * Index with A declared one way, then again from warm caches after only A changed; Main.go()
+     * must call X.run() before and Y.run() after
+     */
+    private void assertReresolved(String before, String after, String call, String... otherCallees)
+            throws IOException {
+        Path sourceRoot = directory.resolve("src");
+        Path p = sourceRoot.resolve("p");
+        write(p.resolve("X.java"), X);
+        write(p.resolve("Y.java"), Y);
+        write(p.resolve("A.java"), "package p;\n" + before);
+        write(p.resolve("Main.java"), "package p;\npublic class Main {\n    public void go() {\n        "
+                + call + "\n    }\n}\n");
+
+        assertEquals(callees("p.X.run()", otherCallees), sorted(index(sourceRoot).getCallees("p.Main.go()")));
+        write(p.resolve("A.java"), "package p;\n" + after);
+        assertEquals(callees("p.Y.run()", otherCallees), sorted(index(sourceRoot).getCallees("p.Main.go()")));
+    }
+
+    /**
+     * A new run over the same on-disk caches
+     */
+    private WorkspaceIndex index(Path sourceRoot) throws IOException {
+        SourceIndexer indexer = new SourceIndexer(sourceRoot, "p", PARALLELISM,
+                new ParseSummaryCache(directory.resolve("summaries")),
+                new CallResolutionCache(directory.resolve("resolutions")));
+        return WorkspaceIndex.build(indexer.index(), "p");
+    }
+
+    private static List<String> callees(String run, String... others) {
+        List<String> result = new ArrayList<>(Arrays.asList(others));
+        result.add(run);
+        Collections.sort(result);
+        return result;
+    }
+}
@@ -0,0 +1,52 @@
+package com.hack.parser.solver.enhanced;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Source trees for the tests: a small synthetic corpus with interfaces, diamonds and call cycles,
+ * always the same files for its fixed seed, and helpers to write and edit files in place.
+ */
+final class TestSources {
+
+    static final String CORPUS = "packages=2,classesPerPackage=8,interfacesPerPackage=1,fanOut=2,"
+            + "callDepth=5,diamondDensity=0.5,recursionCycles=3,seed=5";
+
+    static final int PARALLELISM = 2;
+
+    private TestSources() {
+    }
+
+    static SyntheticCodebase.Generated generateCorpus(Path sourceRoot) throws IOException {
+        return SyntheticCodebase.parse(CORPUS).generate(sourceRoot);
+    }
+
+    /**
+     * A full index of the source root, built the way a fresh run builds it
+     */
+    static WorkspaceIndex index(Path sourceRoot, String packagePrefix) throws IOException {
+        return new MethodCallFinder(sourceRoot, packagePrefix, PARALLELISM).buildIndex();
+    }
+
+    static List<String> sorted(Collection<String> values) {
+        List<String> result = new ArrayList<>(values);
+        Collections.sort(result);
+        return result;
+    }
+
+    static String read(Path file) {
+        try {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
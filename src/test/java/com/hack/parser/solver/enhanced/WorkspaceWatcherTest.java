@@ -0,0 +1,124 @@
+package com.hack.parser.solver.enhanced;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.hack.parser.solver.enhanced.TestSources.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A snapshot patched by the watcher must describe the same call graph as an index built from
+ * scratch over the edited files.
+ */
+class WorkspaceWatcherTest {
+
+    @Test
+    void patchedSnapshotMatchesRebuild(@TempDir Path sourceRoot) throws IOException {
+        SyntheticCodebase.Generated generated = generateCorpus(sourceRoot);
+        String prefix = generated.getPackagePrefix();
+        List<Path> files = javaFiles(sourceRoot);
+        Set<Path> changed = new LinkedHashSet<>();
+
+        try (WorkspaceWatcher watcher = WorkspaceWatcher.start(sourceRoot, prefix, PARALLELISM, null)) {
+            // A new call to the target from the first class that does not call it yet
+            String target = generated.getTargetSignature();
+            String targetMethod = target.substring(target.lastIndexOf('.') + 1, target.indexOf('('));
+            String call = "        value = new " + generated.getTargetClass() + "()." + targetMethod + "(value);\n";
+            Path caller = files.stream()
+                    .filter(file -> !read(file).contains(" implements ") && !read(file).contains("interface "))
+                    .filter(file -> !read(file).contains(targetMethod + "("))
+                    .findFirst().orElseThrow();
+            write(caller, read(caller).replace("        return value;\n", call + "        return value;\n"));
+            changed.add(caller);
+
+            // An implementation removed, so every call through its interface loses a callee
+            Path implementation = files.stream().filter(file -> file.getFileName().toString().endsWith("Impl1.java"))
+                    .findFirst().orElseThrow();
+            Files.delete(implementation);
+            changed.add(implementation);
+
+            // A new entry point
+            Path added = sourceRoot.resolve(prefix.replace('.', '/')).resolve("p0/Added.java");
+            write(added, "package " + prefix + ".p0;\n\npublic class Added {\n"
+                    + "    public static void main(String[] args) {\n"
+                    + "        new " + generated.getTargetClass() + "()." + targetMethod + "(0);\n"
+                    + "    }\n}\n");
+            changed.add(added);
+
+            watcher.apply(changed);
+            WorkspaceIndex patched = watcher.snapshot();
+            WorkspaceIndex rebuilt = index(sourceRoot, prefix);
+            assertEquals(describe(rebuilt), describe(patched));
+            assertTrue(patched.getCallees(signatureIn(patched, caller)).contains(target));
+        }
+    }
+
+    /**
+     * A caller that did not change still has to be resolved again when the return type of a method
+     * it calls changes
+     */
+    @Test
+    void returnTypeChangeReresolvesCallers(@TempDir Path sourceRoot) throws IOException {
+        Path p = sourceRoot.resolve("p");
+        write(p.resolve("A.java"), "package p;\npublic class A {\n    public X get() {\n        return new X();\n    }\n}\n");
+        write(p.resolve("X.java"), "package p;\npublic class X {\n    public void run() {\n    }\n}\n");
+        write(p.resolve("Y.java"), "package p;\npublic class Y {\n    public void run() {\n    }\n}\n");
+        write(p.resolve("Main.java"), "package p;\npublic class Main {\n    public void go() {\n"
+                + "        new A().get().run();\n    }\n}\n");
+
+        try (WorkspaceWatcher watcher = WorkspaceWatcher.start(sourceRoot, "p", PARALLELISM, null)) {
+            assertEquals(Arrays.asList("p.A.get()", "p.X.run()"), sorted(watcher.snapshot().getCallees("p.Main.go()")));
+
+            write(p.resolve("A.java"), "package p;\npublic class A {\n    public Y get() {\n        return new Y();\n    }\n}\n");
+            watcher.apply(Collections.singleton(p.resolve("A.java")));
+            WorkspaceIndex patched = watcher.snapshot();
+            assertEquals(Arrays.asList("p.A.get()", "p.Y.run()"), sorted(patched.getCallees("p.Main.go()")));
+            assertEquals(describe(index(sourceRoot, "p")), describe(patched));
+        }
+    }
+
+    /**
+     * Per declared method its file, line, callees and callers, then the entry points
+     */
+    static String describe(WorkspaceIndex index) {
+        StringBuilder out = new StringBuilder();
+        List<String> methods = new ArrayList<>();
+        new TreeMap<>(index.summaries).values().forEach(summary ->
+                summary.getMethods().forEach(method -> methods.add(method.getSignature())));
+        for (String method : methods) {
+            int id = index.signatures.id(method);
+            List<String> callers = new ArrayList<>();
+            for (int i = index.callGraph.callersFrom(id); i < index.callGraph.callersTo(id); i++) {
+                callers.add(index.signatures.name(index.callGraph.caller(i)));
+            }
+            out.append(method).append(" @ ").append(index.getFilePath(method)).append(':')
+                    .append(index.getLineNumber(method)).append("\n  callees ").append(sorted(index.getCallees(method)))
+                    .append("\n  callers ").append(sorted(callers)).append('\n');
+        }
+        List<String> entryPoints = new ArrayList<>();
+        for (int id = 0; id < index.entryPointRank.length; id++) {
+            if (index.entryPointRank[id] >= 0 && index.getFilePath(index.signatures.name(id)) != null) {
+                entryPoints.add(index.signatures.name(id));
+            }
+        }
+        // Entry points are ranked by id, and a patch gives new methods ids of its own
+        return out.append("entry points ").append(sorted(entryPoints)).toString();
+    }
+
+    private static String signatureIn(WorkspaceIndex index, Path file) {
+        return index.summaries.get(file.toString()).getMethods().get(0).getSignature();
+    }
+
+    private static List<Path> javaFiles(Path sourceRoot) throws IOException {
+        try (Stream<Path> paths = Files.walk(sourceRoot)) {
+            return paths.filter(path -> path.toString().endsWith(".java")).sorted().collect(Collectors.toList());
+        }
+    }
+}